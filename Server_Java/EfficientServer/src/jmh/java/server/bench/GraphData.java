@@ -0,0 +1,136 @@
+package server.bench;
+import server.proto.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Walks and query locations of a benchmark dataset
+ * A dataset is either a test file of the tester client ("file:walk10nodes500.pbf") or a generated grid of
+ * side x side locations ("grid:100"). The test files are looked up in the directory given by the bench.testFiles
+ * system property, the tester client's TestFiles directory by default
+ */
+public final class GraphData {
+    private static final String TEST_FILES = System.getProperty("bench.testFiles", "../../ServerTesterClient/TestFiles");
+    private static final int GRID_SPACING = 10000; //Distance of the neighbouring grid locations [mm]
+    private static final int GRID_JITTER = 100; //Measurement error added to the grid locations [mm]
+    private static final int GRID_WALK_LENGTH = 20; //Locations of one generated Walk
+
+    private final List<Walk> walks;
+    private final List<Location> queryLocations;
+
+    private GraphData(List<Walk> walks, List<Location> queryLocations) {
+        this.walks = walks;
+        this.queryLocations = queryLocations;
+    }
+
+    /**
+     * @return the Walks of the dataset in the order they are sent
+     */
+    public List<Walk> getWalks() {
+        return walks;
+    }
+
+    /**
+     * @return the received locations the queries are made with
+     */
+    public List<Location> getQueryLocations() {
+        return queryLocations;
+    }
+
+    /**
+     * Load or generate a dataset
+     * @param dataset - "file:<name>" or "grid:<side>"
+     * @return the loaded dataset
+     */
+    public static GraphData load(String dataset) throws IOException {
+        if (dataset.startsWith("file:")) {
+            return readTestFile(Paths.get(TEST_FILES, dataset.substring("file:".length())));
+        }
+        if (dataset.startsWith("grid:")) {
+            return generateGrid(Integer.parseInt(dataset.substring("grid:".length())), 42);
+        }
+        throw new IllegalArgumentException("Unknown dataset " + dataset);
+    }
+
+    /**
+     * Helper function to read the length prefixed requests of a test file
+     * The resets are skipped, the query locations are the origins and destinations of the OneTo* requests
+     */
+    private static GraphData readTestFile(Path path) throws IOException {
+        List<Walk> walks = new ArrayList<>();
+        List<Location> queryLocations = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (in.available() > 0) {
+                byte[] message = new byte[in.readInt()];
+                in.readFully(message);
+                Request request = Request.parseFrom(message);
+                if (request.hasWalk()) {
+                    walks.add(request.getWalk());
+                } else if (request.hasOneToOne()) {
+                    queryLocations.add(request.getOneToOne().getOrigin());
+                    queryLocations.add(request.getOneToOne().getDestination());
+                } else if (request.hasOneToAll()) {
+                    queryLocations.add(request.getOneToAll().getOrigin());
+                }
+            }
+        }
+        if (queryLocations.isEmpty()) {
+            for (Walk walk : walks) {
+                queryLocations.addAll(walk.getLocationsList());
+            }
+        }
+        return new GraphData(walks, queryLocations);
+    }
+
+    /**
+     * Helper function to generate a grid of roads driven in both directions
+     * Every row and column is covered by Walks of at most GRID_WALK_LENGTH locations in both directions,
+     * each location is measured with a random error and each edge with a random length
+     * @param side - the number of locations of a row and a column
+     * @param seed - the seed of the random errors and lengths
+     */
+    static GraphData generateGrid(int side, long seed) {
+        Random random = new Random(seed);
+        List<Walk> walks = new ArrayList<>();
+        for (int line = 0; line < side; line++) {
+            for (int start = 0; start < side - 1; start += GRID_WALK_LENGTH - 1) {
+                int end = Math.min(start + GRID_WALK_LENGTH - 1, side - 1);
+                walks.add(gridWalk(random, line, start, end, true));
+                walks.add(gridWalk(random, line, end, start, true));
+                walks.add(gridWalk(random, line, start, end, false));
+                walks.add(gridWalk(random, line, end, start, false));
+            }
+        }
+        List<Location> queryLocations = new ArrayList<>();
+        for (int i = 0; i < Math.min(side * side, 4096); i++) {
+            queryLocations.add(gridLocation(random, random.nextInt(side), random.nextInt(side)));
+        }
+        return new GraphData(walks, queryLocations);
+    }
+
+    private static Walk gridWalk(Random random, int line, int from, int to, boolean row) {
+        Walk.Builder walk = Walk.newBuilder();
+        int step = from <= to ? 1 : -1;
+        for (int position = from; ; position += step) {
+            walk.addLocations(row ? gridLocation(random, position, line) : gridLocation(random, line, position));
+            if (position == to) {
+                break;
+            }
+            walk.addLengths(GRID_SPACING + random.nextInt(2000));
+        }
+        return walk.build();
+    }
+
+    private static Location gridLocation(Random random, int x, int y) {
+        return Location.newBuilder()
+                .setX(x * GRID_SPACING + random.nextInt(2 * GRID_JITTER + 1) - GRID_JITTER)
+                .setY(y * GRID_SPACING + random.nextInt(2 * GRID_JITTER + 1) - GRID_JITTER)
+                .build();
+    }
+}
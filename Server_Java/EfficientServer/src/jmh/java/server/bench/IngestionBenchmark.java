@@ -0,0 +1,62 @@
+package server.bench;
+import server.Graph;
+import server.proto.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to build the graph of a whole dataset from an empty graph
+ * addEdge inserts the edges one by one like the original handler, addWalks applies the Walks in batches like the
+ * single writer, addWalkParallel inserts the Walks from all cores into one graph to measure the contention
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IngestionBenchmark {
+    @Param({"file:walk10nodes500.pbf", "grid:100", "grid:300"})
+    public String dataset;
+
+    @Param({"256"})
+    public int batchSize;
+
+    private List<Walk> walks;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        walks = GraphData.load(dataset).getWalks();
+    }
+
+    @Benchmark
+    public Graph addEdge() {
+        Graph graph = new Graph();
+        for (Walk walk : walks) {
+            for (int i = 0; i < walk.getLocationsCount() - 1; i++) {
+                graph.addEdge(walk.getLocations(i), walk.getLocations(i + 1), walk.getLengths(i));
+            }
+        }
+        return graph;
+    }
+
+    @Benchmark
+    public Graph addWalks() {
+        Graph graph = new Graph();
+        for (int start = 0; start < walks.size(); start += batchSize) {
+            graph.addWalks(walks.subList(start, Math.min(start + batchSize, walks.size())));
+        }
+        return graph;
+    }
+
+    @Benchmark
+    public Graph addWalkParallel() {
+        Graph graph = new Graph();
+        walks.parallelStream().forEach(walk -> graph.addWalk(walk.getLocationsList(), walk.getLengthsList()));
+        return graph;
+    }
+}
@@ -0,0 +1,111 @@
+package server.bench;
+import server.Graph;
+import server.proto.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of snapping a received location and of the OneToOne and OneToAll queries on a fully built graph
+ * Every benchmark runs on one thread and on four threads sharing the graph. The queries cycle through the query
+ * locations of the dataset, the OneToAll cache and the trees of the hot origins are disabled so every query runs a
+ * whole search
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dserver.oneToAllCacheSize=0", "-Dserver.hotOrigins=0"})
+public class QueryBenchmark {
+    private static final int CONCURRENT_THREADS = 4;
+
+    @Param({"file:walk10nodes500.pbf", "grid:100", "grid:300"})
+    public String dataset;
+
+    private Graph graph;
+    private Location[] received; //Locations as sent by the clients
+    private Location[] physical; //The same locations snapped to the nodes of the graph
+    private Location[][] pairs; //Origin and destination of the OneToOne queries, only the connected ones
+
+    /**
+     * Position of one benchmark thread in the query locations
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = 0;
+
+        int next(int count) {
+            int current = next;
+            next = (current + 1) % count;
+            return current;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void build() throws IOException {
+        GraphData data = GraphData.load(dataset);
+        graph = new Graph();
+        graph.addWalks(data.getWalks());
+        List<Location> locations = data.getQueryLocations();
+        received = locations.toArray(new Location[0]);
+        physical = new Location[received.length];
+        for (int i = 0; i < received.length; i++) {
+            Location location = graph.getCorrespondingLocation(received[i]);
+            physical[i] = location != null ? location : received[i];
+        }
+        graph.computeTotalLength(physical[0]); //Build the query snapshot before the measurement
+
+        //Pair every location with the opposite and the next one, keeping the pairs connected by a path
+        List<Location[]> connected = new ArrayList<>();
+        for (int i = 0; i < physical.length; i++) {
+            for (Location destination : new Location[]{physical[physical.length - 1 - i], physical[(i + 1) % physical.length]}) {
+                if (graph.computeShortestPath(physical[i], destination) > 0) {
+                    connected.add(new Location[]{physical[i], destination});
+                }
+            }
+        }
+        if (connected.isEmpty()) {
+            throw new IllegalStateException("No connected query locations in " + dataset);
+        }
+        pairs = connected.toArray(new Location[0][]);
+    }
+
+    @Benchmark
+    public Location snap(Cursor cursor) {
+        return graph.getCorrespondingLocation(received[cursor.next(received.length)]);
+    }
+
+    @Benchmark
+    @Threads(CONCURRENT_THREADS)
+    public Location snapConcurrent(Cursor cursor) {
+        return snap(cursor);
+    }
+
+    @Benchmark
+    public long oneToOne(Cursor cursor) {
+        Location[] pair = pairs[cursor.next(pairs.length)];
+        return graph.computeShortestPath(pair[0], pair[1]);
+    }
+
+    @Benchmark
+    @Threads(CONCURRENT_THREADS)
+    public long oneToOneConcurrent(Cursor cursor) {
+        return oneToOne(cursor);
+    }
+
+    @Benchmark
+    public long oneToAll(Cursor cursor) {
+        return graph.computeTotalLength(physical[cursor.next(physical.length)]);
+    }
+
+    @Benchmark
+    @Threads(CONCURRENT_THREADS)
+    public long oneToAllConcurrent(Cursor cursor) {
+        return oneToAll(cursor);
+    }
+}
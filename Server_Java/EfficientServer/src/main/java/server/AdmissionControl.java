@@ -0,0 +1,143 @@
+package server;
+import server.proto.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission of the queries to the worker threads
+ * The queries run in two lanes with their own executors: the cheap lane (OneToOne, Stats) and the expensive lane
+ * (OneToAll, BatchQuery), whose thread count is the maximum of concurrent full-graph searches, so a burst of OneToAll
+ * requests never takes the threads of the cheap queries. Every lane admits a bounded number of queries, and a query
+ * with a deadline is refused when the estimated work queued before it would not finish in time. The work is estimated
+ * from the graph size and the measured time per unit of work. A refused query is answered with an ERROR right away
+ */
+public final class AdmissionControl {
+    private static final int CHEAP_THREADS = Integer.getInteger("server.queryThreads", Runtime.getRuntime().availableProcessors());
+    private static final int EXPENSIVE_THREADS = Integer.getInteger("server.maxConcurrentOneToAll", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int CHEAP_QUEUE = Integer.getInteger("server.admission.maxQueued", 1024); //Queries admitted to the cheap lane
+    private static final int EXPENSIVE_QUEUE = Integer.getInteger("server.admission.maxQueuedOneToAll", 64); //Queries admitted to the expensive lane
+    private static final long DEFAULT_DEADLINE_MILLIS = Long.getLong("server.deadlineMillis", 0); //Used when a request sets none, 0 = no deadline
+
+    static final String OVERLOADED = "Server overloaded, retry later";
+    static final String DEADLINE_EXCEEDED = "Deadline exceeded";
+
+    private final Lane cheap = new Lane("query", CHEAP_THREADS, CHEAP_QUEUE, 10_000);
+    private final Lane expensive = new Lane("one-to-all", EXPENSIVE_THREADS, EXPENSIVE_QUEUE, 100);
+
+    /**
+     * Ticket of an admitted query, returned to its lane once the query finished
+     */
+    static final class Ticket {
+        final Lane lane;
+        final long units; //Estimated work of the query
+        final long deadline; //System.nanoTime() after which the query is not started, Long.MAX_VALUE for none
+
+        private Ticket(Lane lane, long units, long deadline) {
+            this.lane = lane;
+            this.units = units;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return whether the deadline of the query has passed, the query is then counted as refused
+         */
+        boolean isExpired() {
+            if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+                lane.rejected.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Return the ticket to its lane
+         * @param nanos - the time the query ran, 0 if it was not started
+         */
+        void release(long nanos) {
+            lane.release(this, nanos);
+        }
+    }
+
+    /**
+     * Admit a query to its lane
+     * @param request - the received OneToOne, OneToAll, BatchQuery or Stats request
+     * @param graph - the graph of the request, the work of the query is estimated from its size
+     * @param received - the System.nanoTime() the request was read at
+     * @return the ticket of the query, null if it is refused
+     */
+    Ticket admit(Request request, Graph graph, long received) {
+        long deadlineMillis = request.getDeadlineMillis() != 0 ? request.getDeadlineMillis() : DEFAULT_DEADLINE_MILLIS;
+        long deadline = deadlineMillis > 0 ? received + TimeUnit.MILLISECONDS.toNanos(deadlineMillis) : Long.MAX_VALUE;
+        if (request.hasOneToAll()) {
+            return expensive.admit(Math.max(graph.getNodeCount(), 1), deadline);
+        } else if (request.hasBatch()) {
+            BatchQuery batch = request.getBatch();
+            //At most one search per OneToOne origin and one per OneToAll
+            long searches = (long) batch.getOneToOneCount() + batch.getOneToAllCount();
+            return expensive.admit(Math.max(searches * graph.getNodeCount(), 1), deadline);
+        }
+        return cheap.admit(1, deadline);
+    }
+
+    /**
+     * @return the number of queries refused because of the lane limits or their deadline
+     */
+    long getRejected() {
+        return cheap.rejected.get() + expensive.rejected.get();
+    }
+
+    /**
+     * One class of queries: an executor, the admitted queries and their estimated work
+     */
+    static final class Lane {
+        final ExecutorService executor;
+        private final int threads;
+        private final int maxQueued;
+        private final AtomicInteger admitted = new AtomicInteger(); //Queued and running queries
+        private final AtomicLong queuedUnits = new AtomicLong(); //Estimated work of the admitted queries
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong picosPerUnit; //Moving average of the measured time per unit of work
+
+        Lane(String name, int threads, int maxQueued, long initialNanosPerUnit) {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(threads, r -> new Thread(r, name + "-" + threadCount.incrementAndGet()));
+            this.threads = threads;
+            this.maxQueued = maxQueued;
+            this.picosPerUnit = new AtomicLong(initialNanosPerUnit * 1000);
+        }
+
+        private Ticket admit(long units, long deadline) {
+            if (admitted.incrementAndGet() > maxQueued) {
+                admitted.decrementAndGet();
+                rejected.incrementAndGet();
+                return null;
+            }
+            long queued = queuedUnits.addAndGet(units);
+            if (deadline != Long.MAX_VALUE) {
+                //The queued work is shared by the threads of the lane, the query itself runs on one of them
+                long picos = picosPerUnit.get();
+                long estimatedNanos = (queued - units) / threads * picos / 1000 + units * picos / 1000;
+                if (System.nanoTime() + estimatedNanos - deadline > 0) {
+                    admitted.decrementAndGet();
+                    queuedUnits.addAndGet(-units);
+                    rejected.incrementAndGet();
+                    return null;
+                }
+            }
+            return new Ticket(this, units, deadline);
+        }
+
+        private void release(Ticket ticket, long nanos) {
+            queuedUnits.addAndGet(-ticket.units);
+            admitted.decrementAndGet();
+            if (nanos > 0) {
+                long measured = nanos * 1000 / ticket.units;
+                picosPerUnit.accumulateAndGet(measured, (average, sample) -> average + (sample - average) / 8);
+            }
+        }
+    }
+}
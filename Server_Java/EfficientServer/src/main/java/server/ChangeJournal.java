@@ -0,0 +1,134 @@
+package server;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded journal of the keys of the edges changed by the Walks, used to repair the shortest path trees of the
+ * hot OneToAll origins instead of recomputing them
+ * The keys are written to a ring buffer at a position that only grows, a snapshot remembers the positions around its
+ * build, so the edges that may differ between two snapshots are the ones recorded between them. A key is recorded
+ * before its edge is changed and the writer marks the batch applied afterwards, a snapshot starts at the first
+ * batch not applied yet, so an edge read by the build is never changed before the start. An edge may be recorded
+ * more than once
+ */
+final class ChangeJournal {
+    private final ReentrantLock lock = new ReentrantLock(); //Not a monitor, a waiting virtual thread releases its carrier
+    private final long[] keys;
+    private long position = 0; //Number of keys recorded since the start
+    private long floor = 0; //Position before which the keys are lost, moved by a reset
+    private int applying = 0; //Recorded batches not applied to the edge store yet
+    private long applyingFrom = 0; //Position of the first key of the oldest of them
+
+    /**
+     * @param capacity - the number of the most recent keys kept
+     */
+    ChangeJournal(int capacity) {
+        keys = new long[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Record changed edges, they have to be marked applied once they are in the edge store
+     * @param changed - the packed keys of the edges (see EdgeStore.edgeKey)
+     * @param count - the number of valid keys in the array
+     */
+    void record(long[] changed, int count) {
+        lock.lock();
+        try {
+            startBatch();
+            for (int i = 0; i < count; i++) {
+                keys[(int) (position++ % keys.length)] = changed[i];
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record one changed edge, it has to be marked applied once it is in the edge store
+     * @param key - the packed key of the edge (see EdgeStore.edgeKey)
+     */
+    void record(long key) {
+        lock.lock();
+        try {
+            startBatch();
+            keys[(int) (position++ % keys.length)] = key;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Mark a recorded batch as applied to the edge store
+     */
+    void applied() {
+        lock.lock();
+        try {
+            applying--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the position of the next recorded key
+     */
+    long position() {
+        lock.lock();
+        try {
+            return position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the position up to which every recorded key is applied to the edge store
+     */
+    long appliedPosition() {
+        lock.lock();
+        try {
+            return applying == 0 ? position : applyingFrom;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void startBatch() {
+        if (applying++ == 0) {
+            applyingFrom = position;
+        }
+    }
+
+    /**
+     * @param from - the first position
+     * @param to - the position after the last one
+     * @return the keys recorded between the positions, null if some of them are no longer kept
+     */
+    long[] changesBetween(long from, long to) {
+        lock.lock();
+        try {
+            if (from < floor || from < position - keys.length || to > position || to < from) {
+                return null;
+            }
+            long[] changed = new long[(int) (to - from)];
+            for (long i = from; i < to; i++) {
+                changed[(int) (i - from)] = keys[(int) (i % keys.length)];
+            }
+            return changed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forget every recorded key, the changes across a reset cannot be repaired
+     */
+    void clear() {
+        lock.lock();
+        try {
+            floor = position;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Contraction hierarchy of a graph snapshot for fast OneToOne queries on a stable graph
+ * The nodes are contracted one by one in the order of their edge difference. Contracting a node adds a shortcut
+ * between each pair of its remaining neighbors, unless a witness path avoiding the node is at most as long.
+ * Every edge then leads either upward (to a node contracted later) or downward, and a shortest path always climbs up
+ * from the start and descends to the end, so a query only searches upward from both ends
+ * The hierarchy is stored like a snapshot, off-heap with -Dserver.offHeap=true
+ */
+final class ContractionHierarchy {
+    private static final int WITNESS_SETTLE_LIMIT = 200; //Witness searches give up after this many settled nodes
+    private static final int PRIORITY_SETTLE_LIMIT = 30; //Cheaper witness searches while estimating the priorities
+    private static final int MAX_SHORTCUT_FACTOR = 10; //Give up the build above this many shortcuts per original edge
+
+    private final IntArray upOffsets; //Edges to higher ranked nodes, grouped by their source
+    private final IntArray upTargets;
+    private final IntArray upWeights;
+    private final IntArray downOffsets; //Edges from higher ranked nodes, grouped by their destination
+    private final IntArray downSources;
+    private final IntArray downWeights;
+    private final long version;
+    private final ConcurrentLinkedQueue<SearchSpace> searchSpaces = new ConcurrentLinkedQueue<>();
+
+    private ContractionHierarchy(IntArray upOffsets, IntArray upTargets, IntArray upWeights,
+                                 IntArray downOffsets, IntArray downSources, IntArray downWeights, long version) {
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.downOffsets = downOffsets;
+        this.downSources = downSources;
+        this.downWeights = downWeights;
+        this.version = version;
+    }
+
+    /**
+     * Preprocess a snapshot, this takes a while on large graphs and is meant to run in the background
+     * @param snapshot - the snapshot to build the hierarchy of
+     * @return the hierarchy, null if the graph is unsuitable (too many shortcuts would be needed, or a shortcut longer
+     * than Integer.MAX_VALUE)
+     */
+    static ContractionHierarchy build(GraphSnapshot snapshot) {
+        return new Builder(snapshot).build();
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the size of the upward and downward indexes in bytes
+     */
+    long getMemoryBytes() {
+        return Integer.BYTES * ((long) upOffsets.length() + upTargets.length() + upWeights.length()
+                + downOffsets.length() + downSources.length() + downWeights.length());
+    }
+
+    private int getNodeCount() {
+        return upOffsets.length() - 1;
+    }
+
+    /**
+     * Calculate the length of the shortest path between two nodes with an upward search from both ends
+     * A side stops once its queue minimum reaches the best path found, the sides don't bound each other
+     * like in the plain bidirectional search, since the upward distances are not the final distances
+     * @param start - the id of the start node
+     * @param end - the id of the end node
+     * @return the length of the shortest path; -1 if the path is not found
+     */
+    long shortestPath(int start, int end) {
+        if (start == end) {
+            return 0;
+        }
+        if (start >= getNodeCount() || end >= getNodeCount()) {
+            return -1; //Node added after the snapshot was built
+        }
+        SearchSpace forward = acquireSearchSpace();
+        SearchSpace backward = acquireSearchSpace();
+        try {
+            forward.start(start);
+            backward.start(end);
+            long best = Long.MAX_VALUE;
+
+            while (true) {
+                boolean forwardActive = !forward.queue.isEmpty() && forward.queue.peekKey() < best;
+                boolean backwardActive = !backward.queue.isEmpty() && backward.queue.peekKey() < best;
+                if (!forwardActive && !backwardActive) {
+                    break;
+                }
+                if (forwardActive && (!backwardActive || forward.queue.peekKey() <= backward.queue.peekKey())) {
+                    long distance = forward.queue.peekKey();
+                    int current = forward.queue.poll();
+                    best = forward.relaxEdges(backward, upOffsets, upTargets, upWeights, current, distance, best);
+                } else {
+                    long distance = backward.queue.peekKey();
+                    int current = backward.queue.poll();
+                    best = backward.relaxEdges(forward, downOffsets, downSources, downWeights, current, distance, best);
+                }
+            }
+            return best == Long.MAX_VALUE ? -1 : best;
+        } finally {
+            releaseSearchSpace(forward);
+            releaseSearchSpace(backward);
+        }
+    }
+
+    private SearchSpace acquireSearchSpace() {
+        SearchSpace space = searchSpaces.poll();
+        return space != null ? space : new SearchSpace(getNodeCount());
+    }
+
+    private void releaseSearchSpace(SearchSpace space) {
+        space.finishQuery();
+        searchSpaces.offer(space);
+    }
+
+    /**
+     * Mutable working graph of the preprocessing, a contracted node is detached from its remaining neighbors
+     */
+    private static final class Builder {
+        private final int nodeCount;
+        private final long version;
+        private final int maxEdgeCount;
+        private final int[][] outTargets;
+        private final int[][] outWeights;
+        private final int[] outSizes;
+        private final int[][] inSources;
+        private final int[][] inWeights;
+        private final int[] inSizes;
+        private final int[] contractedNeighbors;
+        private final int[] levels; //Hierarchy depth below the node, keeps the contraction spread evenly over the graph
+        private final SearchSpace witness;
+        private final int[] targetMarks;
+        private int targetEpoch = 0;
+        private int edgeCount = 0;
+        private boolean weightOverflow = false; //A needed shortcut is longer than an int weight can hold
+
+        //Edges of the hierarchy, collected when their lower ranked end is contracted
+        private int[] upSources = new int[16], upTargets = new int[16], upWeights = new int[16];
+        private int upCount = 0;
+        private int[] downSources = new int[16], downTargets = new int[16], downWeights = new int[16];
+        private int downCount = 0;
+
+        Builder(GraphSnapshot snapshot) {
+            nodeCount = snapshot.getNodeCount();
+            version = snapshot.getVersion();
+            outTargets = new int[nodeCount][];
+            outWeights = new int[nodeCount][];
+            outSizes = new int[nodeCount];
+            inSources = new int[nodeCount][];
+            inWeights = new int[nodeCount][];
+            inSizes = new int[nodeCount];
+            contractedNeighbors = new int[nodeCount];
+            levels = new int[nodeCount];
+            witness = new SearchSpace(nodeCount);
+            targetMarks = new int[nodeCount];
+            for (int u = 0; u < nodeCount; u++) {
+                outTargets[u] = new int[4];
+                outWeights[u] = new int[4];
+                inSources[u] = new int[4];
+                inWeights[u] = new int[4];
+            }
+
+            IntArray offsets = snapshot.getOffsets();
+            IntArray targets = snapshot.getTargets();
+            IntArray weights = snapshot.getWeights();
+            for (int u = 0; u < nodeCount; u++) {
+                for (int edge = offsets.get(u), last = offsets.get(u + 1); edge < last; edge++) {
+                    if (targets.get(edge) != u) {
+                        addEdge(u, targets.get(edge), weights.get(edge));
+                    }
+                }
+            }
+            maxEdgeCount = Math.max(edgeCount, 1) * MAX_SHORTCUT_FACTOR;
+        }
+
+        ContractionHierarchy build() {
+            IntMinHeap order = new IntMinHeap(nodeCount);
+            for (int v = 0; v < nodeCount; v++) {
+                order.insertOrDecrease(v, priority(v));
+            }
+            while (!order.isEmpty()) {
+                int v = order.poll();
+                //Lazy update: the priority might have grown since it was queued
+                long priority = priority(v);
+                if (!order.isEmpty() && priority > order.peekKey()) {
+                    order.insertOrDecrease(v, priority);
+                    continue;
+                }
+                contract(v);
+                if (edgeCount > maxEdgeCount || weightOverflow) {
+                    return null;
+                }
+            }
+
+            IntArray upOffsets = IntArray.allocate(nodeCount + 1);
+            IntArray upEnds = IntArray.allocate(upCount);
+            IntArray upLengths = IntArray.allocate(upCount);
+            GraphSnapshot.groupEdges(nodeCount, upSources, upTargets, upWeights, upCount, upOffsets, upEnds, upLengths);
+            IntArray downOffsets = IntArray.allocate(nodeCount + 1);
+            IntArray downEnds = IntArray.allocate(downCount);
+            IntArray downLengths = IntArray.allocate(downCount);
+            GraphSnapshot.groupEdges(nodeCount, downTargets, downSources, downWeights, downCount, downOffsets, downEnds, downLengths);
+            return new ContractionHierarchy(upOffsets, upEnds, upLengths, downOffsets, downEnds, downLengths, version);
+        }
+
+        /**
+         * Helper function to estimate how much contracting a node would grow the graph
+         * @param v - the node
+         * @return the edge difference plus the number of already contracted neighbors, smaller is contracted earlier
+         */
+        private long priority(int v) {
+            int shortcuts = processShortcuts(v, PRIORITY_SETTLE_LIMIT, false);
+            return 2L * (shortcuts - inSizes[v] - outSizes[v]) + contractedNeighbors[v] + levels[v];
+        }
+
+        /**
+         * Helper function to contract a node: record its remaining edges in the hierarchy and add the needed shortcuts
+         * @param v - the node to contract
+         */
+        private void contract(int v) {
+            for (int i = 0; i < outSizes[v]; i++) {
+                int target = outTargets[v][i];
+                addUpEdge(v, target, outWeights[v][i]);
+                contractedNeighbors[target]++;
+                levels[target] = Math.max(levels[target], levels[v] + 1);
+            }
+            for (int i = 0; i < inSizes[v]; i++) {
+                int source = inSources[v][i];
+                addDownEdge(source, v, inWeights[v][i]);
+                contractedNeighbors[source]++;
+                levels[source] = Math.max(levels[source], levels[v] + 1);
+            }
+            processShortcuts(v, WITNESS_SETTLE_LIMIT, true);
+            //Detach the node, so the remaining graph only holds the edges between uncontracted nodes
+            for (int i = 0; i < outSizes[v]; i++) {
+                int target = outTargets[v][i];
+                inSizes[target] = removeEnd(inSources[target], inWeights[target], inSizes[target], v);
+            }
+            for (int i = 0; i < inSizes[v]; i++) {
+                int source = inSources[v][i];
+                outSizes[source] = removeEnd(outTargets[source], outWeights[source], outSizes[source], v);
+            }
+        }
+
+        /**
+         * Helper function to remove an edge end from an adjacency list by moving the last entry into its place
+         * @return the new size of the list
+         */
+        private static int removeEnd(int[] ends, int[] weights, int size, int removed) {
+            for (int i = 0; i < size; i++) {
+                if (ends[i] == removed) {
+                    size--;
+                    ends[i] = ends[size];
+                    weights[i] = weights[size];
+                    return size;
+                }
+            }
+            return size;
+        }
+
+        /**
+         * Helper function to find the shortcuts needed when a node is contracted
+         * For every remaining incoming neighbor u, a witness search from u that avoids v checks whether the path
+         * u -> v -> x is the only shortest one to each remaining outgoing neighbor x
+         * @param v - the node being contracted
+         * @param settleLimit - the maximum number of settled nodes of a witness search, an aborted search needs a shortcut
+         * @param add - whether to add the shortcuts to the graph or only count them
+         * @return the number of needed shortcuts
+         */
+        private int processShortcuts(int v, int settleLimit, boolean add) {
+            int shortcuts = 0;
+            for (int i = 0; i < inSizes[v]; i++) {
+                int source = inSources[v][i];
+                long inWeight = inWeights[v][i];
+                long maxDistance = 0;
+                for (int j = 0; j < outSizes[v]; j++) {
+                    maxDistance = Math.max(maxDistance, inWeight + outWeights[v][j]);
+                }
+                witnessSearch(source, v, maxDistance, settleLimit);
+                for (int j = 0; j < outSizes[v]; j++) {
+                    int target = outTargets[v][j];
+                    if (target == source) {
+                        continue;
+                    }
+                    long viaLength = inWeight + outWeights[v][j];
+                    if (witness.getDistance(target) > viaLength) {
+                        shortcuts++;
+                        if (add && viaLength > Integer.MAX_VALUE) {
+                            weightOverflow = true; //Dropping or clamping the shortcut would give wrong paths
+                        } else if (add) {
+                            addEdge(source, target, (int) viaLength);
+                        }
+                    }
+                }
+                witness.finish();
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Helper function to run a bounded Dijkstra search on the remaining graph without the contracted node
+         */
+        private void witnessSearch(int source, int excluded, long maxDistance, int settleLimit) {
+            //Mark the outgoing neighbors of the contracted node, the search can stop once all of them are settled
+            if (++targetEpoch == Integer.MAX_VALUE) {
+                Arrays.fill(targetMarks, 0);
+                targetEpoch = 1;
+            }
+            int remainingTargets = 0;
+            for (int j = 0; j < outSizes[excluded]; j++) {
+                int target = outTargets[excluded][j];
+                if (target != source) {
+                    targetMarks[target] = targetEpoch;
+                    remainingTargets++;
+                }
+            }
+
+            witness.start(source);
+            int settled = 0;
+            while (!witness.queue.isEmpty() && settled < settleLimit && remainingTargets > 0) {
+                long distance = witness.queue.peekKey();
+                if (distance > maxDistance) {
+                    break;
+                }
+                int u = witness.queue.poll();
+                settled++;
+                if (targetMarks[u] == targetEpoch) {
+                    remainingTargets--;
+                }
+                for (int i = 0; i < outSizes[u]; i++) {
+                    int target = outTargets[u][i];
+                    if (target == excluded) {
+                        continue;
+                    }
+                    long newDist = distance + outWeights[u][i];
+                    if (newDist < witness.getDistance(target)) {
+                        witness.setDistance(target, newDist);
+                        witness.queue.insertOrDecrease(target, newDist);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Helper function to add an edge to the working graph, or lower the weight of the existing edge
+         */
+        private void addEdge(int source, int target, int weight) {
+            for (int i = 0; i < outSizes[source]; i++) {
+                if (outTargets[source][i] == target) {
+                    if (weight < outWeights[source][i]) {
+                        outWeights[source][i] = weight;
+                        for (int j = 0; j < inSizes[target]; j++) {
+                            if (inSources[target][j] == source) {
+                                inWeights[target][j] = weight;
+                            }
+                        }
+                    }
+                    return;
+                }
+            }
+            int out = outSizes[source]++;
+            if (out == outTargets[source].length) {
+                outTargets[source] = Arrays.copyOf(outTargets[source], out * 2);
+                outWeights[source] = Arrays.copyOf(outWeights[source], out * 2);
+            }
+            outTargets[source][out] = target;
+            outWeights[source][out] = weight;
+            int in = inSizes[target]++;
+            if (in == inSources[target].length) {
+                inSources[target] = Arrays.copyOf(inSources[target], in * 2);
+                inWeights[target] = Arrays.copyOf(inWeights[target], in * 2);
+            }
+            inSources[target][in] = source;
+            inWeights[target][in] = weight;
+            edgeCount++;
+        }
+
+        private void addUpEdge(int source, int target, int weight) {
+            if (upCount == upSources.length) {
+                upSources = Arrays.copyOf(upSources, upCount * 2);
+                upTargets = Arrays.copyOf(upTargets, upCount * 2);
+                upWeights = Arrays.copyOf(upWeights, upCount * 2);
+            }
+            upSources[upCount] = source;
+            upTargets[upCount] = target;
+            upWeights[upCount] = weight;
+            upCount++;
+        }
+
+        private void addDownEdge(int source, int target, int weight) {
+            if (downCount == downSources.length) {
+                downSources = Arrays.copyOf(downSources, downCount * 2);
+                downTargets = Arrays.copyOf(downTargets, downCount * 2);
+                downWeights = Arrays.copyOf(downWeights, downCount * 2);
+            }
+            downSources[downCount] = source;
+            downTargets[downCount] = target;
+            downWeights[downCount] = weight;
+            downCount++;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Parallel single source shortest paths (delta-stepping) for the OneToAll requests on large graphs
+ * The tentative distances are split into buckets of width delta. The nodes of the lowest non-empty bucket are relaxed
+ * in parallel on a ForkJoinPool, the distances are lowered with compare-and-set, and the improved nodes are put into
+ * the bucket of their new distance, the current bucket included. A bucket is done when it stays empty after a round,
+ * so every distance is final once all the buckets are processed, and the total is exactly the one of Dijkstra.
+ * All the edges are relaxed the same way, the light/heavy edge split of the original algorithm is left out
+ */
+final class DeltaStepping {
+    private static final int SEQUENTIAL_FRONTIER = 256; //Smaller frontiers (and frontier chunks) are relaxed on one thread
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private final IntArray offsets;
+    private final IntArray targets;
+    private final IntArray weights;
+    private final long delta;
+    private final AtomicLongArray distances;
+    private final int[] frontierStamps; //Round in which the node was last put into the frontier
+    private final List<int[]> buckets = new ArrayList<>(); //Bucket i holds nodes with a distance in [i*delta, (i+1)*delta)
+    private int[] bucketSizes = new int[0];
+
+    private DeltaStepping(GraphSnapshot snapshot, long delta) {
+        this.offsets = snapshot.getOffsets();
+        this.targets = snapshot.getTargets();
+        this.weights = snapshot.getWeights();
+        this.delta = delta;
+        int nodeCount = snapshot.getNodeCount();
+        this.distances = new AtomicLongArray(nodeCount);
+        this.frontierStamps = new int[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            distances.set(i, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Calculate the total length of the shortest paths from a node to every reachable node in parallel
+     * @param snapshot - the snapshot to search on
+     * @param start - the id of the start node
+     * @param delta - the bucket width, 0 to use the average edge length
+     * @return the sum of the shortest path lengths
+     */
+    static long totalLength(GraphSnapshot snapshot, int start, long delta) {
+        if (start >= snapshot.getNodeCount()) {
+            return 0; //Node added after the snapshot was built
+        }
+        if (delta <= 0) {
+            IntArray weights = snapshot.getWeights();
+            long weightSum = 0;
+            for (int edge = 0; edge < weights.length(); edge++) {
+                weightSum += weights.get(edge);
+            }
+            delta = Math.max(1, weightSum / Math.max(1, weights.length()));
+        }
+        return new DeltaStepping(snapshot, delta).run(start);
+    }
+
+    private long run(int start) {
+        distances.set(start, 0);
+        addToBucket(0, start);
+        int round = 0;
+        for (int bucket = 0; bucket < buckets.size(); bucket++) {
+            while (bucketSizes[bucket] > 0) {
+                //Take the nodes of the bucket, skipping duplicates and nodes that moved to a lower bucket since
+                int[] candidates = buckets.get(bucket);
+                int candidateCount = bucketSizes[bucket];
+                buckets.set(bucket, new int[Math.max(16, candidateCount)]);
+                bucketSizes[bucket] = 0;
+                round++;
+                int frontierSize = 0;
+                for (int i = 0; i < candidateCount; i++) {
+                    int node = candidates[i];
+                    if (frontierStamps[node] != round && distances.get(node) / delta == bucket) {
+                        frontierStamps[node] = round;
+                        candidates[frontierSize++] = node;
+                    }
+                }
+                relaxFrontier(candidates, frontierSize);
+                SearchSpace.addSettledNodes(frontierSize);
+            }
+            buckets.set(bucket, null); //Processed buckets are never touched again
+        }
+
+        long totalLength = 0;
+        for (int i = 0; i < distances.length(); i++) {
+            long distance = distances.get(i);
+            if (distance != Long.MAX_VALUE) {
+                totalLength += distance;
+            }
+        }
+        return totalLength;
+    }
+
+    /**
+     * Helper function to relax the edges of the frontier, in parallel if it is large enough,
+     * then file the improved nodes into their buckets
+     */
+    private void relaxFrontier(int[] frontier, int frontierSize) {
+        ConcurrentLinkedQueue<int[]> improved = new ConcurrentLinkedQueue<>();
+        RelaxTask task = new RelaxTask(frontier, 0, frontierSize, improved);
+        if (frontierSize <= SEQUENTIAL_FRONTIER) {
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+        for (int[] nodes : improved) {
+            //The first element is the number of nodes in the chunk
+            for (int i = 1; i <= nodes[0]; i++) {
+                int node = nodes[i];
+                addToBucket((int) (distances.get(node) / delta), node);
+            }
+        }
+    }
+
+    private void addToBucket(int bucket, int node) {
+        while (buckets.size() <= bucket) {
+            buckets.add(new int[16]);
+        }
+        if (bucketSizes.length < buckets.size()) {
+            bucketSizes = Arrays.copyOf(bucketSizes, Math.max(buckets.size(), bucketSizes.length * 2));
+        }
+        int[] nodes = buckets.get(bucket);
+        int size = bucketSizes[bucket];
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            buckets.set(bucket, nodes);
+        }
+        nodes[size] = node;
+        bucketSizes[bucket] = size + 1;
+    }
+
+    /**
+     * Relaxes a range of the frontier, splitting it while it is large
+     */
+    private final class RelaxTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] frontier;
+        private final int from;
+        private final int to;
+        private final ConcurrentLinkedQueue<int[]> improved;
+
+        RelaxTask(int[] frontier, int from, int to, ConcurrentLinkedQueue<int[]> improved) {
+            this.frontier = frontier;
+            this.from = from;
+            this.to = to;
+            this.improved = improved;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SEQUENTIAL_FRONTIER && getPool() != null) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RelaxTask(frontier, from, middle, improved), new RelaxTask(frontier, middle, to, improved));
+                return;
+            }
+            int[] nodes = new int[17];
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                int node = frontier[i];
+                long distance = distances.get(node);
+                for (int edge = offsets.get(node), last = offsets.get(node + 1); edge < last; edge++) {
+                    int neighbor = targets.get(edge);
+                    long newDist = distance + weights.get(edge);
+                    long current = distances.get(neighbor);
+                    while (newDist < current) {
+                        if (distances.compareAndSet(neighbor, current, newDist)) {
+                            if (++count == nodes.length) {
+                                nodes = Arrays.copyOf(nodes, nodes.length * 2);
+                            }
+                            nodes[count] = neighbor;
+                            break;
+                        }
+                        current = distances.get(neighbor);
+                    }
+                }
+            }
+            if (count > 0) {
+                nodes[0] = count;
+                improved.add(nodes);
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-optimized store of the directed edges
+ * Only the sum and the count of the received lengths are kept for every edge, which is all the integer division average needs,
+ * so repeated Walks do not grow the memory. The edges are keyed by the packed source and destination node ids
+ * in open-addressing hash tables, split into independently locked segments to spread the concurrent updates.
+ * The tables are off the heap with -Dserver.offHeap=true, a replaced table is released right away under the segment lock
+ */
+final class EdgeStore {
+    private static final int SEGMENT_COUNT = 64; //Must be a power of two
+    private static final int SEGMENT_SHIFT = Long.SIZE - Integer.numberOfTrailingZeros(SEGMENT_COUNT);
+    private static final int INITIAL_SEGMENT_CAPACITY = 64; //Must be a power of two
+    private static final long EMPTY_KEY = -1L; //Node ids are never negative, so no edge has this key
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    /**
+     * Callback receiving the stored edges
+     */
+    interface EdgeVisitor {
+        void visit(int source, int destination, long lengthSum, int lengthCount);
+    }
+
+    EdgeStore() {
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Pack the two node ids of a directed edge into one key
+     * @param source - the id of the source node
+     * @param destination - the id of the destination node
+     * @return the key of the edge
+     */
+    static long edgeKey(int source, int destination) {
+        return ((long) source << 32) | (destination & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Helper function to spread the bits of the key, the high bits select the segment, the low bits the slot
+     */
+    static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * Record one observed length of a directed edge, creating the edge if it is new
+     * @param source - the id of the source node
+     * @param destination - the id of the destination node
+     * @param length - the received length of the edge
+     */
+    void add(int source, int destination, int length) {
+        restore(source, destination, length, 1);
+    }
+
+    /**
+     * Add accumulated lengths to a directed edge, creating the edge if it is new
+     * Used to load a persisted graph, where the sum and the count of every edge are stored
+     * @param source - the id of the source node
+     * @param destination - the id of the destination node
+     * @param lengthSum - the sum of the received lengths
+     * @param lengthCount - the number of the received lengths
+     */
+    void restore(int source, int destination, long lengthSum, int lengthCount) {
+        long key = edgeKey(source, destination);
+        long hash = mix(key);
+        Segment segment = segments[(int) (hash >>> SEGMENT_SHIFT)];
+        segment.lock.lock();
+        try {
+            segment.add(key, (int) hash, lengthSum, lengthCount);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Record a batch of observed lengths, grouped by segment so each segment is locked only once per batch
+     * @param keys - the packed keys of the edges (see edgeKey)
+     * @param lengths - the received lengths of the edges
+     * @param count - the number of valid entries in the arrays
+     */
+    void addAll(long[] keys, int[] lengths, int count) {
+        int[] hashes = new int[count];
+        int[] segmentIndices = new int[count];
+        int[] segmentStarts = new int[SEGMENT_COUNT + 1];
+        for (int i = 0; i < count; i++) {
+            long hash = mix(keys[i]);
+            hashes[i] = (int) hash;
+            segmentIndices[i] = (int) (hash >>> SEGMENT_SHIFT);
+            segmentStarts[segmentIndices[i] + 1]++;
+        }
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segmentStarts[i + 1] += segmentStarts[i];
+        }
+        int[] order = new int[count]; //Edge indices sorted by segment
+        int[] next = Arrays.copyOf(segmentStarts, SEGMENT_COUNT);
+        for (int i = 0; i < count; i++) {
+            order[next[segmentIndices[i]]++] = i;
+        }
+
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            if (segmentStarts[i] == segmentStarts[i + 1]) {
+                continue;
+            }
+            Segment segment = segments[i];
+            segment.lock.lock();
+            try {
+                for (int j = segmentStarts[i]; j < segmentStarts[i + 1]; j++) {
+                    int edge = order[j];
+                    segment.add(keys[edge], hashes[edge], lengths[edge], 1);
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the number of distinct directed edges
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the size of the tables in bytes, including their free slots
+     */
+    long getMemoryBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                bytes += (long) segment.keys.length() * (Long.BYTES + Long.BYTES + Integer.BYTES);
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Pass every stored edge to the visitor, each segment is locked while it is visited,
+     * so the sum and the count of an edge are always consistent with each other
+     * @param visitor - the callback receiving the edges
+     */
+    void forEachEdge(EdgeVisitor visitor) {
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                LongArray keys = segment.keys;
+                for (int slot = 0, capacity = keys.length(); slot < capacity; slot++) {
+                    long key = keys.get(slot);
+                    if (key != EMPTY_KEY) {
+                        visitor.visit((int) (key >>> 32), (int) key, segment.sums.get(slot), segment.counts.get(slot));
+                    }
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Remove every edge
+     */
+    void clear() {
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.free();
+                segment.init(INITIAL_SEGMENT_CAPACITY);
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * One open-addressing table with linear probing, guarded by its own lock
+     */
+    private static final class Segment {
+        final ReentrantLock lock = new ReentrantLock();
+        LongArray keys;
+        LongArray sums;
+        IntArray counts;
+        int size;
+
+        Segment() {
+            init(INITIAL_SEGMENT_CAPACITY);
+        }
+
+        void init(int capacity) {
+            keys = LongArray.allocate(capacity);
+            keys.fill(EMPTY_KEY);
+            sums = LongArray.allocate(capacity);
+            counts = IntArray.allocate(capacity);
+            size = 0;
+        }
+
+        void free() {
+            keys.free();
+            sums.free();
+            counts.free();
+        }
+
+        void add(long key, int hash, long lengthSum, int lengthCount) {
+            int mask = keys.length() - 1;
+            int slot = hash & mask;
+            long slotKey;
+            while ((slotKey = keys.get(slot)) != EMPTY_KEY && slotKey != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (slotKey == EMPTY_KEY) {
+                if ((size + 1) * 2 > keys.length()) {
+                    grow();
+                    add(key, hash, lengthSum, lengthCount);
+                    return;
+                }
+                keys.set(slot, key);
+                size++;
+            }
+            sums.set(slot, sums.get(slot) + lengthSum);
+            counts.set(slot, counts.get(slot) + lengthCount);
+        }
+
+        private void grow() {
+            LongArray oldKeys = keys;
+            LongArray oldSums = sums;
+            IntArray oldCounts = counts;
+            init(oldKeys.length() * 2);
+            int mask = keys.length() - 1;
+            for (int i = 0, oldCapacity = oldKeys.length(); i < oldCapacity; i++) {
+                long key = oldKeys.get(i);
+                if (key == EMPTY_KEY) {
+                    continue;
+                }
+                int slot = (int) mix(key) & mask;
+                while (keys.get(slot) != EMPTY_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys.set(slot, key);
+                sums.set(slot, oldSums.get(i));
+                counts.set(slot, oldCounts.get(i));
+                size++;
+            }
+            oldKeys.free();
+            oldSums.free();
+            oldCounts.free();
+        }
+    }
+}
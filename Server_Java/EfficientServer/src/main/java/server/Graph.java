@@ -1,178 +1,279 @@
 package server;
 
 import server.proto.Location;
+import server.proto.Walk;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Graph {
-    private final Map<Location, Map<Location, List<Integer>>> adjacencyList = new ConcurrentHashMap<>(); //Store the graph edges
-    private final Map<Integer, Map<Integer, Location>> hashGrid = new ConcurrentHashMap<>();
-    private static final int GRID_SIZE = 250;
-    private static final int DISTANCE_THRESHOLD_SQUARED = 500*500;
+    private static final int DISTANCE_THRESHOLD = 500;
+    private final SpatialIndex nodes = new SpatialIndex(DISTANCE_THRESHOLD); //Physical location and integer id of every node
+    private final EdgeStore edges = new EdgeStore(); //Store the graph edges as length sum and count
+    private final AtomicLong version = new AtomicLong(); //Incremented after every applied Walk (or edge) and reset, used to detect a stale snapshot
+    private final ReentrantLock snapshotLock = new ReentrantLock(); //Not a monitor, so waiting virtual threads do not pin their carrier
+    private volatile GraphSnapshot snapshot = GraphSnapshot.EMPTY;
+    private final LongAdder snapshotBuilds = new LongAdder();
+    private final LongAdder snapshotWaitNanos = new LongAdder(); //Time the queries spent waiting for a snapshot build
+    private final OneToAllCache oneToAllCache = new OneToAllCache(Integer.getInteger("server.oneToAllCacheSize", 1024));
+    //Keys of the changed edges, used to repair the shortest path trees of the frequently queried OneToAll origins
+    private final ChangeJournal changeJournal = new ChangeJournal(Integer.getInteger("server.changeJournalSize", 1 << 16));
+    private final HotOrigins hotOrigins = new HotOrigins(Integer.getInteger("server.hotOrigins", 8),
+            Integer.getInteger("server.hotOriginQueries", 2), changeJournal);
+    //OneToAll queries on snapshots with at least this many nodes use the parallel delta-stepping search
+    private static final int PARALLEL_ONE_TO_ALL_THRESHOLD = Integer.getInteger("server.parallelOneToAllThreshold", 50000);
+    private static final long DELTA_STEPPING_DELTA = Long.getLong("server.deltaStepping.delta", 0); //0 = average edge length
 
-    /**
-     * Helper function to calculate grid coordinates of a location
-     * @param loc - the received location
-     * @return the X and Y coordinates of the grid point that the location got allocated to
-     */
-    private int[] calculateGridCoordinates(Location loc) {
-        int x = (int) Math.floor(loc.getX() / GRID_SIZE);
-        int y = (int) Math.floor(loc.getY() / GRID_SIZE);
-        return new int[]{x, y};
+    //Optional contraction hierarchy for the OneToOne queries, built in the background once the Walks go quiet
+    private static final boolean HIERARCHY_ENABLED = Boolean.getBoolean("server.contractionHierarchy");
+    private static final long HIERARCHY_QUIET_MILLIS = Long.getLong("server.contractionHierarchy.quietMillis", 1000);
+    private static final ScheduledExecutorService hierarchyBuilder = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "hierarchy-builder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledFuture<?> hierarchyTask; //Null without the contraction hierarchy
+    private volatile ContractionHierarchy hierarchy = null;
+    private long hierarchyCheckedVersion = -1; //Only accessed by the builder thread
+    private long hierarchyBuiltVersion = -1; //Only accessed by the builder thread
+
+    public Graph() {
+        hierarchyTask = HIERARCHY_ENABLED ? hierarchyBuilder.scheduleWithFixedDelay(this::updateHierarchy,
+                HIERARCHY_QUIET_MILLIS, HIERARCHY_QUIET_MILLIS, TimeUnit.MILLISECONDS) : null;
     }
 
     /**
-     * Helper function to add a location to the hash grid
-     * @param loc - the received location
+     * Release a graph that is not used anymore: stop its background hierarchy builds and clear it,
+     * which also frees its off-heap tables
      */
-    private void addToHashGrid(Location loc) {
-        int[] coordinates = calculateGridCoordinates(loc);
-        hashGrid.computeIfAbsent(coordinates[0], k -> new ConcurrentHashMap<>())
-                .put(coordinates[1], loc);
+    public void close() {
+        if (hierarchyTask != null) {
+            hierarchyTask.cancel(false);
+        }
+        reset();
     }
 
     /**
-     * Helper function to get nearby physical locations from the hash grid
-     * A location is considered a neighbour if it is in the same or in one of the adjacent grid cells
-     * @param receivedLocation - the location we want to find the neighbours of
-     * @return a list containing all the neighbouring locations, empty list if there are none
+     * Public getter for the corresponding physical location of the received location
+     * @param receivedLocation - the location we have to find in the graph
+     * @return the matching location object that is present in the graph, null if the location is not found in the graph
      */
-    private List<Location> getNearbyPhysicalLocations(Location receivedLocation) {
-        List<Location> nearbyLocations = new ArrayList<>();
-        int[] coordinates = calculateGridCoordinates(receivedLocation);
-
-        //Check the same and all the adjacent grid cells
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                int gridX = coordinates[0] + dx;
-                int gridY = coordinates[1] + dy;
-                if (hashGrid.containsKey(gridX) && hashGrid.get(gridX).containsKey(gridY)) {
-                    nearbyLocations.add(hashGrid.get(gridX).get(gridY));
-                }
-            }
+    public Location getCorrespondingLocation(Location receivedLocation) {
+        int node = nodes.nearest(receivedLocation.getX(), receivedLocation.getY());
+        if (node == -1) {
+            return null; //Reported to the client, counted in the error metrics
         }
-        return nearbyLocations;
+        int x = nodes.getX(node);
+        int y = nodes.getY(node);
+        if (x == receivedLocation.getX() && y == receivedLocation.getY()) {
+            return receivedLocation;
+        }
+        return Location.newBuilder().setX(x).setY(y).build();
     }
 
     /**
-     * Helper function to calculate the Euclidean distance between the two locations
-     * Comparing the square values to save the sqrt() operation
-     * sqrt(u) <= v is equivalent to u <= v^2
-     *
-     * @param loc1 - one of the locations
-     * @param loc2 - the other location
-     * @return the square of the distance between the two points
+     * Add an edge between two locations
+     * @param source - the source of the directed edge (one end)
+     * @param destination - the destination of the directed edge (the other end)
+     * @param weight - the length of the edge
      */
-    private double areLocationsWithinDistance(Location loc1, Location loc2) {
-        return Math.pow(loc1.getX() - loc2.getX(), 2) + Math.pow(loc1.getY() - loc2.getY(), 2);
+    public void addEdge(Location source, Location destination, int weight) {
+        insertEdge(source, destination, weight);
+        version.incrementAndGet();
     }
 
     /**
-     * Helper function to get a possible physical location that is already in the graph for the received location
-     * @param receivedLocation - the location we want to find in the graph
-     * @return the existing location object if found, null if not found
+     * Add every edge of a walk, the walk becomes visible to the queries arriving after the method returns
+     * @param locations - the consecutive locations of the walk
+     * @param lengths - the length of the edge between each two consecutive locations
      */
-    private Location getPossibleLocation(Location receivedLocation) {
-        List<Location> nearbyLocations = getNearbyPhysicalLocations(receivedLocation);
-        double distanceGlobal = DISTANCE_THRESHOLD_SQUARED;
-        Location foundLocation = null;
-
-        // Iterate over nearby physical locations to find the one within 50cm distance
-        for (Location physicalLocation : nearbyLocations) {
-            double distance = areLocationsWithinDistance(receivedLocation, physicalLocation);
-            if (distance <= distanceGlobal) {
-                distanceGlobal = distance;
-                foundLocation = physicalLocation;
-            }
-        }
-        // If no physical location within 50cm distance is found, return the sent location itself
-        if(distanceGlobal < DISTANCE_THRESHOLD_SQUARED) {
-            return foundLocation;
-        }
-        else {
-            return null;
+    public void addWalk(List<Location> locations, List<Integer> lengths) {
+        for (int i = 0; i < locations.size() - 1; i++) {
+            insertEdge(locations.get(i), locations.get(i + 1), lengths.get(i));
         }
+        version.incrementAndGet();
     }
 
     /**
-     * Helper function to get the physical location corresponding to the received location
-     * @param receivedLocation - the new location that has to be checked if already exists in the graph
-     * @return the already existing location object if found, the received location object if not
+     * Add every edge of a batch of Walks, the whole batch becomes visible to the queries at once
+     * The locations are snapped to their nodes one by one, and the edges are handed to the edge store together
+     * @param walks - the Walks of the batch, each has at least as many lengths as edges
      */
-    private Location getPhysicalLocation(Location receivedLocation) {
-        Location physicalLocation = getPossibleLocation(receivedLocation);
-        if (physicalLocation != null) {
-            return physicalLocation;
-        }
-        else {
-            return receivedLocation;
+    public void addWalks(List<Walk> walks) {
+        int edgeCount = 0;
+        for (Walk walk : walks) {
+            edgeCount += Math.max(walk.getLocationsCount() - 1, 0);
         }
-    }
+        long[] keys = new long[edgeCount];
+        int[] lengths = new int[edgeCount];
 
-    /**
-     * Public getter for the corresponding physical location of the received location
-     * @param receivedLocation - the location we have to find in the graph
-     * @return the matching location object that is present in the graph, null if the location is not found in the graph
-     */
-    public Location getCorrespondingLocation(Location receivedLocation) {
-        Location foundLocation = getPossibleLocation(receivedLocation);
-        if(foundLocation != null) {
-            return foundLocation;
+        int edge = 0;
+        for (Walk walk : walks) {
+            int previous = -1;
+            for (int i = 0; i < walk.getLocationsCount(); i++) {
+                Location location = walk.getLocations(i);
+                int node = nodes.findOrAdd(location.getX(), location.getY());
+                if (i > 0) {
+                    keys[edge] = EdgeStore.edgeKey(previous, node);
+                    lengths[edge] = walk.getLengths(i - 1);
+                    edge++;
+                }
+                previous = node;
+            }
         }
-        else {
-            System.out.println("Error: Location not found");
-            return null;
+        changeJournal.record(keys, edge); //Before the change, so a snapshot containing it also covers its record
+        try {
+            edges.addAll(keys, lengths, edge);
+        } finally {
+            changeJournal.applied(); //A snapshot built from now on reads the whole batch
         }
+        version.incrementAndGet();
     }
 
     /**
-     * Add an edge between two locations
+     * Helper function to add an edge without publishing it to the following queries
      * @param source - the source of the directed edge (one end)
      * @param destination - the destination of the directed edge (the other end)
      * @param weight - the length of the edge
      */
-    public void addEdge(Location source, Location destination, int weight) {
-        Location physSource = null;
-        Location physDest = null;
+    private void insertEdge(Location source, Location destination, int weight) {
+        int sourceId;
+        int destId;
         try {
-            physSource = getPhysicalLocation(source);
-            physDest = getPhysicalLocation(destination);
+            //Snap the locations to their nodes, creating the nodes not in the graph yet
+            sourceId = nodes.findOrAdd(source.getX(), source.getY());
+            destId = nodes.findOrAdd(destination.getX(), destination.getY());
         } catch (Exception e) {
-            System.out.println("Error during addEdge, get physical locations: " + e.getMessage());
+            ServerLog.log("Error during addEdge, get physical locations: " + e.getMessage());
             return;
         }
-        final Location finalPhysDest = physDest;
 
         try {
-            adjacencyList.compute(physSource, (sourceKey, destMap) -> {
-                if (destMap == null) {
-                    destMap = new ConcurrentHashMap<>();
-                }
-                destMap.compute(finalPhysDest, (destKey, weights) -> {
-                    if (weights == null) {
-                        weights = new CopyOnWriteArrayList<>();
-                    }
-                    weights.add(weight);
-                    return weights;
-                });
-                return destMap;
-            });
+            changeJournal.record(EdgeStore.edgeKey(sourceId, destId));
+            try {
+                edges.add(sourceId, destId, weight);
+            } finally {
+                changeJournal.applied();
+            }
         } catch (Exception e) {
-            System.out.println("Error during addEdge, update adjacencyList: " + e.getMessage());
-            return;
+            ServerLog.log("Error during addEdge, update edges: " + e.getMessage());
         }
+    }
 
+    /**
+     * Get the read-optimized snapshot the query arriving now has to run on
+     * Queries never block the Walks: a published snapshot is immutable, and the edge store keeps accepting Walks
+     * while a new snapshot is built from it. The snapshot contains every Walk that was acknowledged before the call,
+     * it might also contain parts of Walks that were still being applied. Concurrent queries share one rebuild
+     * @return the snapshot containing every Walk applied before the call
+     */
+    GraphSnapshot getSnapshot() {
+        long required = version.get();
+        GraphSnapshot current = snapshot;
+        if (current.getVersion() >= required) {
+            return current;
+        }
+        long waitStart = System.nanoTime();
+        snapshotLock.lock();
         try {
-            //Update the hash grid with the new locations
-            addToHashGrid(physSource);
-            addToHashGrid(physDest);
+            current = snapshot;
+            if (current.getVersion() < required) {
+                //Every Walk counted in the version is completely in the edge store before the build starts
+                current = buildSnapshot(version.get());
+                snapshot = current;
+                snapshotBuilds.increment();
+            }
+            return current;
+        } finally {
+            snapshotLock.unlock();
+            snapshotWaitNanos.add(System.nanoTime() - waitStart);
+        }
+    }
+
+    /**
+     * Helper function to convert the edge store to a CSR snapshot with averaged edge lengths
+     * @param currentVersion - the graph version at the start of the build
+     * @return the constructed snapshot
+     */
+    private GraphSnapshot buildSnapshot(long currentVersion) {
+        int capacity = Math.max(edges.size(), 16);
+        int[][] edgeArrays = {new int[capacity], new int[capacity], new int[capacity]}; //Sources, destinations, weights
+        int[] edgeCount = {0};
+        //A batch being applied may be read only partly, its changes are repaired again by the following snapshots
+        long journalStart = changeJournal.appliedPosition();
+        edges.forEachEdge((source, destination, lengthSum, lengthCount) -> {
+            int edge = edgeCount[0]++;
+            if (edge == edgeArrays[0].length) {
+                for (int i = 0; i < edgeArrays.length; i++) {
+                    edgeArrays[i] = Arrays.copyOf(edgeArrays[i], edge * 2);
+                }
+            }
+            edgeArrays[0][edge] = source;
+            edgeArrays[1][edge] = destination;
+            edgeArrays[2][edge] = (int) (lengthSum / lengthCount); //Average edge length with integer division
+        });
+        //Read after the edges, so every visited edge refers to a node below the count
+        int nodeCount = nodes.size();
+        long journalEnd = changeJournal.position();
+        int validCount = 0;
+        for (int edge = 0; edge < edgeCount[0]; edge++) {
+            //Drop the edges of Walks that were still running during a reset
+            if (edgeArrays[0][edge] < nodeCount && edgeArrays[1][edge] < nodeCount) {
+                edgeArrays[0][validCount] = edgeArrays[0][edge];
+                edgeArrays[1][validCount] = edgeArrays[1][edge];
+                edgeArrays[2][validCount] = edgeArrays[2][edge];
+                validCount++;
+            }
+        }
+        return GraphSnapshot.fromEdges(nodeCount, edgeArrays[0], edgeArrays[1], edgeArrays[2], validCount, currentVersion,
+                journalStart, journalEnd);
+    }
+
+    /**
+     * Rebuild the contraction hierarchy if the graph changed but no Walk arrived since the previous check
+     * Runs periodically on the builder thread, the queries use plain Dijkstra while the hierarchy is stale
+     */
+    private void updateHierarchy() {
+        try {
+            long currentVersion = version.get();
+            if (currentVersion != hierarchyCheckedVersion) {
+                hierarchyCheckedVersion = currentVersion; //Walks are still arriving, wait for a quiet period
+                return;
+            }
+            GraphSnapshot current = getSnapshot();
+            if (current.getVersion() == hierarchyBuiltVersion) {
+                return;
+            }
+            hierarchyBuiltVersion = current.getVersion();
+            ContractionHierarchy built = ContractionHierarchy.build(current);
+            if (built == null) {
+                ServerLog.log("Contraction hierarchy skipped: too many or too long shortcuts needed");
+            }
+            hierarchy = built;
         } catch (Exception e) {
-            System.out.println("Error during addEdge, add hashgrid: " + e.getMessage());
+            ServerLog.log("Error while building the contraction hierarchy: " + e.getMessage());
         }
     }
 
+    /**
+     * Helper function to get the integer id of a physical location
+     * @param location - the physical location
+     * @return the id of the node, -1 if there is no node near the location
+     */
+    private int getNodeId(Location location) {
+        return nodes.nearest(location.getX(), location.getY());
+    }
+
     /**
      * Calculate the length of the shortest path between two locations (Dijkstra algorithm)
      * @param start - one of the locations
@@ -180,35 +281,79 @@ public class Graph {
      * @return the length of the shortest path between the locations; -1 if the path is not found
      */
     public long computeShortestPath(Location start, Location end) {
-        try{
-            PriorityQueue<Node> queue = new PriorityQueue<>(Comparator.comparingLong(node -> node.distance));
-            Map<Location, Long> distances = new HashMap<>();
-            queue.add(new Node(start, 0));
-            distances.put(start, 0L);
-
-            while (!queue.isEmpty()) {
-                Node current = queue.poll();
-                if (current.location.equals(end)) {
-                    return current.distance;
-                }
-                for (Map.Entry<Location, List<Integer>> neighborEntry : adjacencyList.getOrDefault(current.location, Collections.emptyMap()).entrySet()) {
-                    Location neighbor = neighborEntry.getKey();
-                    List<Integer> edgeWeights = neighborEntry.getValue();
-                    long avgLength = (long) edgeWeights.stream().mapToInt(Integer::intValue).average().orElse(0.0);
-                    long newDist = current.distance + avgLength;
-                    if (newDist < distances.getOrDefault(neighbor, Long.MAX_VALUE)) {
-                        distances.put(neighbor, newDist);
-                        queue.add(new Node(neighbor, newDist));
-                    }
+        return computeShortestPath(getSnapshot(), start, end);
+    }
+
+    /**
+     * Calculate the length of the shortest path between two locations on a given snapshot
+     * @param current - the snapshot the query runs on
+     * @param start - one of the locations
+     * @param end - the other location
+     * @return the length of the shortest path between the locations; -1 if the path is not found
+     */
+    long computeShortestPath(GraphSnapshot current, Location start, Location end) {
+        try {
+            if (start.equals(end)) {
+                return 0;
+            }
+            int startId = getNodeId(start);
+            int endId = getNodeId(end);
+            if (startId != -1 && endId != -1) {
+                ContractionHierarchy currentHierarchy = hierarchy;
+                long length = currentHierarchy != null && currentHierarchy.getVersion() == current.getVersion()
+                        ? currentHierarchy.shortestPath(startId, endId)
+                        : current.shortestPath(startId, endId);
+                if (length != -1) {
+                    return length;
                 }
             }
         }
         catch (Exception e) {
-            System.out.println("Error in computeShortestPath: " + e.getMessage());
+            ServerLog.log("Error in computeShortestPath: " + e.getMessage());
         }
 
-        System.out.println("Error: Path not found");
-        return -1;
+        return -1; //Path not found, reported to the client and counted in the error metrics
+    }
+
+    /**
+     * Calculate the lengths of the shortest paths from one location to several locations with one search
+     * @param start - the common origin of the paths
+     * @param ends - the destinations of the paths
+     * @return the length of the shortest path to every destination; -1 where the path is not found
+     */
+    public long[] computeShortestPaths(Location start, List<Location> ends) {
+        return computeShortestPaths(getSnapshot(), start, ends);
+    }
+
+    /**
+     * Calculate the lengths of the shortest paths from one location to several locations on a given snapshot
+     * @param current - the snapshot the query runs on
+     * @param start - the common origin of the paths
+     * @param ends - the destinations of the paths
+     * @return the length of the shortest path to every destination; -1 where the path is not found
+     */
+    long[] computeShortestPaths(GraphSnapshot current, Location start, List<Location> ends) {
+        long[] lengths = new long[ends.size()];
+        Arrays.fill(lengths, -1);
+        try {
+            int startId = getNodeId(start);
+            int[] endIds = new int[ends.size()];
+            for (int i = 0; i < endIds.length; i++) {
+                endIds[i] = getNodeId(ends.get(i));
+            }
+            if (startId != -1) {
+                lengths = current.shortestPaths(startId, endIds);
+            }
+            for (int i = 0; i < endIds.length; i++) {
+                if (start.equals(ends.get(i))) {
+                    lengths[i] = 0;
+                }
+            }
+        }
+        catch (Exception e) {
+            ServerLog.log("Error in computeShortestPaths: " + e.getMessage());
+        }
+        return lengths;
     }
 
     /**
@@ -217,64 +362,174 @@ public class Graph {
      * @return the total length of the paths to every location from the start point; -1 on error
      */
     public long computeTotalLength(Location start) {
+        return computeTotalLength(getSnapshot(), start);
+    }
+
+    /**
+     * Calculate the total length of paths from a starting location to every other location on a given snapshot
+     * @param current - the snapshot the query runs on
+     * @param start - the start of the pathfinding
+     * @return the total length of the paths to every location from the start point; -1 on error
+     */
+    long computeTotalLength(GraphSnapshot current, Location start) {
         try
         {
-            PriorityQueue<Node> queue = new PriorityQueue<>(Comparator.comparingLong(node -> node.distance));
-            Map<Location, Long> distances = new HashMap<>();
-            queue.add(new Node(start, 0));
-            distances.put(start, 0L);
-            long totalLength = 0;
+            int startId = getNodeId(start);
+            if (startId == -1) {
+                return 0; //A location without edges reaches only itself
+            }
+            return totalLength(current, startId);
+        }
+        catch (Exception e) {
+            ServerLog.log("Error in computeTotalLength: " + e.getMessage());
+        }
 
-            Set<Location> visited = new HashSet<>(); // Track visited nodes
+        return -1;
+    }
 
-            while (!queue.isEmpty()) {
-                Node current = queue.poll();
-                Location currentNode = current.location;
+    /**
+     * Calculate the total length of paths from a node to every other node of a snapshot
+     * @param current - the snapshot the query runs on
+     * @param startId - the id of the start node
+     * @return the total length of the paths to every node from the start node
+     */
+    long totalLength(GraphSnapshot current, int startId) {
+        long totalLength = oneToAllCache.get(startId, current.getVersion());
+        if (totalLength == -1) {
+            //A frequently queried origin keeps its shortest path tree and only repairs it for the new edges
+            totalLength = hotOrigins.totalLength(current, startId);
+            if (totalLength == -1) {
+                totalLength = current.getNodeCount() >= PARALLEL_ONE_TO_ALL_THRESHOLD
+                        ? DeltaStepping.totalLength(current, startId, DELTA_STEPPING_DELTA)
+                        : current.totalLength(startId);
+            }
+            oneToAllCache.put(startId, current.getVersion(), totalLength);
+        }
+        return totalLength;
+    }
 
-                // Check if node has been visited before
-                if (visited.contains(currentNode)) {
-                    continue; // Skip processing if already visited
+    /**
+     * Write the nodes and the accumulated edge lengths in a compact binary form:
+     * the node count, the packed coordinates of the nodes in id order, the edge count,
+     * then the source, destination, length sum and length count of every edge
+     * Must be called by the single writer, so no Walk is applied while the graph is written
+     * @param out - the stream to write to
+     */
+    void writeSnapshot(DataOutputStream out) throws IOException {
+        long[] coordinates = nodes.getCoordinates();
+        out.writeInt(coordinates.length);
+        for (long coordinate : coordinates) {
+            out.writeLong(coordinate);
+        }
+        out.writeInt(edges.size());
+        try {
+            edges.forEachEdge((source, destination, lengthSum, lengthCount) -> {
+                try {
+                    out.writeInt(source);
+                    out.writeInt(destination);
+                    out.writeLong(lengthSum);
+                    out.writeInt(lengthCount);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
 
-                // Mark node as visited
-                visited.add(currentNode);
-
-                totalLength += current.distance;
-                for (Map.Entry<Location, List<Integer>> neighborEntry : adjacencyList.getOrDefault(currentNode, Collections.emptyMap()).entrySet()) {
-                    Location neighbor = neighborEntry.getKey();
-                    List<Integer> edgeWeights = neighborEntry.getValue();
-                    long avgLength = (long) edgeWeights.stream().mapToInt(Integer::intValue).average().orElse(0.0);
-                    long newDist = current.distance + avgLength;
-                    if (newDist < distances.getOrDefault(neighbor, Long.MAX_VALUE)) {
-                        distances.put(neighbor, newDist);
-                        queue.add(new Node(neighbor, newDist));
-                    }
-                }
+    /**
+     * Must be called by the single writer, like writeSnapshot
+     * @return the number of bytes writeSnapshot writes
+     */
+    long getSnapshotSize() {
+        return 4 + 8L * nodes.size() + 4 + 20L * edges.size();
+    }
+
+    /**
+     * Replace the graph with one written by writeSnapshot
+     * @param buffer - the written graph, read from its position
+     */
+    void loadSnapshot(ByteBuffer buffer) {
+        snapshotLock.lock();
+        try {
+            edges.clear();
+            nodes.clear();
+            int nodeCount = buffer.getInt();
+            for (int i = 0; i < nodeCount; i++) {
+                long coordinate = buffer.getLong();
+                nodes.append((int) (coordinate >> 32), (int) coordinate);
             }
-            return totalLength;
-        }
-        catch (Exception e) {
-            System.out.println("Error in computeTotalLength: " + e.getMessage());
+            int edgeCount = buffer.getInt();
+            for (int i = 0; i < edgeCount; i++) {
+                edges.restore(buffer.getInt(), buffer.getInt(), buffer.getLong(), buffer.getInt());
+            }
+            version.incrementAndGet();
+            snapshot = GraphSnapshot.EMPTY;
+            oneToAllCache.clear();
+            changeJournal.clear();
+            hotOrigins.clear();
+            hierarchy = null;
+        } finally {
+            snapshotLock.unlock();
         }
+    }
 
-        return -1;
+    /**
+     * @return the number of nodes of the graph
+     */
+    public int getNodeCount() {
+        return nodes.size();
     }
 
     /**
-     * Reset the graph structure
+     * @return the number of distinct edges of the graph
      */
-    public void reset() {
-        adjacencyList.clear();
-        hashGrid.clear();
+    public int getEdgeCount() {
+        return edges.size();
+    }
+
+    /**
+     * Estimate the memory of the graph from the tables of the writer and the arrays of the current snapshot and
+     * hierarchy, the per-query working memory and the replaced snapshots still in use are not counted
+     * @return the estimated size of the graph in bytes
+     */
+    public long getMemoryBytes() {
+        ContractionHierarchy currentHierarchy = hierarchy;
+        return nodes.getMemoryBytes() + edges.getMemoryBytes() + snapshot.getMemoryBytes()
+                + (currentHierarchy != null ? currentHierarchy.getMemoryBytes() : 0);
+    }
+
+    /**
+     * @return the number of snapshots built for the queries
+     */
+    public long getSnapshotBuilds() {
+        return snapshotBuilds.sum();
     }
 
-    private static class Node {
-        Location location;
-        long distance;
+    /**
+     * @return the total time the queries waited for a snapshot to be built [ns]
+     */
+    public long getSnapshotWaitNanos() {
+        return snapshotWaitNanos.sum();
+    }
 
-        Node(Location location, long distance) {
-            this.location = location;
-            this.distance = distance;
+    /**
+     * Reset the graph structure
+     */
+    public void reset() {
+        snapshotLock.lock();
+        try {
+            edges.clear();
+            nodes.clear();
+            version.incrementAndGet();
+            snapshot = GraphSnapshot.EMPTY;
+            oneToAllCache.clear();
+            changeJournal.clear();
+            hotOrigins.clear();
+            hierarchy = null;
+        } finally {
+            snapshotLock.unlock();
         }
     }
 }
@@ -0,0 +1,297 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Immutable, read-optimized view of the graph in compressed sparse row (CSR) form
+ * The nodes are numbered 0..n-1, the outgoing edges of node u are stored in
+ * targets[offsets[u]..offsets[u+1]) with the already averaged edge lengths in the same positions of weights.
+ * The reverse index stores the incoming edges the same way, it is used by the backward half of the bidirectional search
+ * The arrays are off-heap with -Dserver.offHeap=true, released once the replaced snapshot is collected
+ */
+final class GraphSnapshot {
+    static final GraphSnapshot EMPTY = fromEdges(0, new int[0], new int[0], new int[0], 0, -1, 0, 0);
+
+    private final IntArray offsets;
+    private final IntArray targets;
+    private final IntArray weights;
+    private final IntArray reverseOffsets;
+    private final IntArray reverseSources; //Source of every incoming edge, grouped by the destination
+    private final IntArray reverseWeights;
+    private final long version; //Graph version the snapshot was built from
+    private final long journalStart; //Change journal position before the edges were read
+    private final long journalEnd; //Change journal position after the edges were read
+    private final ConcurrentLinkedQueue<SearchSpace> searchSpaces = new ConcurrentLinkedQueue<>(); //Reusable per-query working memory
+
+    private GraphSnapshot(IntArray offsets, IntArray targets, IntArray weights,
+                          IntArray reverseOffsets, IntArray reverseSources, IntArray reverseWeights, long version,
+                          long journalStart, long journalEnd) {
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.reverseOffsets = reverseOffsets;
+        this.reverseSources = reverseSources;
+        this.reverseWeights = reverseWeights;
+        this.version = version;
+        this.journalStart = journalStart;
+        this.journalEnd = journalEnd;
+    }
+
+    /**
+     * Build a snapshot from an edge list, the edges get grouped by their source (and by their destination
+     * for the reverse index) with a counting sort
+     * @param nodeCount - the number of nodes, every node id of the edges must be below it
+     * @param sources - the source node of every edge
+     * @param destinations - the destination node of every edge
+     * @param edgeWeights - the averaged length of every edge
+     * @param edgeCount - the number of valid entries in the edge arrays
+     * @param version - the graph version the edges were read at
+     * @param journalStart - the change journal position before the edges were read
+     * @param journalEnd - the change journal position after the edges were read
+     * @return the constructed snapshot
+     */
+    static GraphSnapshot fromEdges(int nodeCount, int[] sources, int[] destinations, int[] edgeWeights, int edgeCount,
+                                   long version, long journalStart, long journalEnd) {
+        IntArray offsets = IntArray.allocate(nodeCount + 1);
+        IntArray targets = IntArray.allocate(edgeCount);
+        IntArray weights = IntArray.allocate(edgeCount);
+        groupEdges(nodeCount, sources, destinations, edgeWeights, edgeCount, offsets, targets, weights);
+        IntArray reverseOffsets = IntArray.allocate(nodeCount + 1);
+        IntArray reverseSources = IntArray.allocate(edgeCount);
+        IntArray reverseWeights = IntArray.allocate(edgeCount);
+        groupEdges(nodeCount, destinations, sources, edgeWeights, edgeCount, reverseOffsets, reverseSources, reverseWeights);
+        return new GraphSnapshot(offsets, targets, weights, reverseOffsets, reverseSources, reverseWeights, version,
+                journalStart, journalEnd);
+    }
+
+    /**
+     * Fill one CSR index with a counting sort of the edges by their key node
+     * @param keys - the node the edges are grouped by
+     * @param values - the other end of the edges
+     * @param offsets - filled with the start of the group of every node, has nodeCount + 1 elements
+     * @param groupedValues - filled with the other ends in group order
+     * @param groupedWeights - filled with the weights in group order
+     */
+    static void groupEdges(int nodeCount, int[] keys, int[] values, int[] edgeWeights, int edgeCount,
+                           IntArray offsets, IntArray groupedValues, IntArray groupedWeights) {
+        int[] next = new int[nodeCount + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            next[keys[i] + 1]++;
+        }
+        for (int u = 0; u < nodeCount; u++) {
+            next[u + 1] += next[u];
+        }
+        for (int u = 0; u <= nodeCount; u++) {
+            offsets.set(u, next[u]);
+        }
+
+        for (int i = 0; i < edgeCount; i++) {
+            int slot = next[keys[i]]++;
+            groupedValues.set(slot, values[i]);
+            groupedWeights.set(slot, edgeWeights[i]);
+        }
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    int getNodeCount() {
+        return offsets.length() - 1;
+    }
+
+    /**
+     * @return the size of the CSR arrays in bytes
+     */
+    long getMemoryBytes() {
+        return Integer.BYTES * ((long) offsets.length() + targets.length() + weights.length()
+                + reverseOffsets.length() + reverseSources.length() + reverseWeights.length());
+    }
+
+    long getJournalStart() {
+        return journalStart;
+    }
+
+    long getJournalEnd() {
+        return journalEnd;
+    }
+
+    /**
+     * @param source - the source node of the edge
+     * @param destination - the destination node of the edge
+     * @return the averaged length of the edge, -1 if the snapshot does not contain it
+     */
+    int getWeight(int source, int destination) {
+        if (source >= getNodeCount()) {
+            return -1;
+        }
+        for (int edge = offsets.get(source), last = offsets.get(source + 1); edge < last; edge++) {
+            if (targets.get(edge) == destination) {
+                return weights.get(edge);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the CSR offsets of the outgoing edges, must not be modified or freed
+     */
+    IntArray getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * @return the CSR targets of the outgoing edges, must not be modified or freed
+     */
+    IntArray getTargets() {
+        return targets;
+    }
+
+    /**
+     * @return the CSR weights of the outgoing edges, must not be modified or freed
+     */
+    IntArray getWeights() {
+        return weights;
+    }
+
+    /**
+     * @return the CSR offsets of the incoming edges, must not be modified or freed
+     */
+    IntArray getReverseOffsets() {
+        return reverseOffsets;
+    }
+
+    /**
+     * @return the CSR sources of the incoming edges, must not be modified or freed
+     */
+    IntArray getReverseSources() {
+        return reverseSources;
+    }
+
+    /**
+     * @return the CSR weights of the incoming edges, must not be modified or freed
+     */
+    IntArray getReverseWeights() {
+        return reverseWeights;
+    }
+
+    /**
+     * Calculate the length of the shortest path between two nodes (bidirectional Dijkstra algorithm)
+     * A forward search from the start on the outgoing edges and a backward search from the end on the incoming edges
+     * always expand the side with the smaller queue minimum. Every edge relaxed towards a node already reached by the other
+     * side gives a candidate path, and the search stops once the sum of the two queue minimums reaches the best candidate,
+     * since no path through an unsettled node can be shorter from then on
+     * @param start - the id of the start node
+     * @param end - the id of the end node
+     * @return the length of the shortest path; -1 if the path is not found
+     */
+    long shortestPath(int start, int end) {
+        if (start == end) {
+            return 0;
+        }
+        if (start >= getNodeCount() || end >= getNodeCount()) {
+            return -1; //Node added after the snapshot was built
+        }
+        SearchSpace forward = acquireSearchSpace();
+        SearchSpace backward = acquireSearchSpace();
+        try {
+            forward.start(start);
+            backward.start(end);
+            long best = Long.MAX_VALUE;
+
+            while (!forward.queue.isEmpty() && !backward.queue.isEmpty()) {
+                long forwardMin = forward.queue.peekKey();
+                long backwardMin = backward.queue.peekKey();
+                if (forwardMin + backwardMin >= best) {
+                    break;
+                }
+                if (forwardMin <= backwardMin) {
+                    int current = forward.queue.poll();
+                    best = forward.relaxEdges(backward, offsets, targets, weights, current, forwardMin, best);
+                } else {
+                    int current = backward.queue.poll();
+                    best = backward.relaxEdges(forward, reverseOffsets, reverseSources, reverseWeights, current, backwardMin, best);
+                }
+            }
+            return best == Long.MAX_VALUE ? -1 : best;
+        } finally {
+            releaseSearchSpace(forward);
+            releaseSearchSpace(backward);
+        }
+    }
+
+    /**
+     * Calculate the total length of the shortest paths from a node to every reachable node (Dijkstra algorithm)
+     * @param start - the id of the start node
+     * @return the sum of the shortest path lengths
+     */
+    long totalLength(int start) {
+        if (start >= getNodeCount()) {
+            return 0; //Node added after the snapshot was built
+        }
+        SearchSpace space = acquireSearchSpace();
+        try {
+            IntMinHeap queue = space.queue;
+            space.start(start);
+            long totalLength = 0;
+
+            while (!queue.isEmpty()) {
+                long distance = queue.peekKey();
+                int current = queue.poll();
+                totalLength += distance;
+                space.relaxEdges(offsets, targets, weights, current, distance);
+            }
+            return totalLength;
+        } finally {
+            releaseSearchSpace(space);
+        }
+    }
+
+    /**
+     * Calculate the lengths of the shortest paths from a node to several nodes with one search (Dijkstra algorithm)
+     * The search stops once every end node is settled
+     * @param start - the id of the start node
+     * @param ends - the ids of the end nodes
+     * @return the length of the shortest path to every end node; -1 where the path is not found
+     */
+    long[] shortestPaths(int start, int[] ends) {
+        long[] lengths = new long[ends.length];
+        Arrays.fill(lengths, -1);
+        if (start >= getNodeCount()) {
+            return lengths; //Node added after the snapshot was built
+        }
+        int[] remaining = Arrays.stream(ends).filter(end -> end >= 0 && end < getNodeCount()).sorted().distinct().toArray();
+        SearchSpace space = acquireSearchSpace();
+        try {
+            IntMinHeap queue = space.queue;
+            space.start(start);
+            int unsettled = remaining.length;
+            while (!queue.isEmpty() && unsettled > 0) {
+                long distance = queue.peekKey();
+                int current = queue.poll();
+                if (Arrays.binarySearch(remaining, current) >= 0) {
+                    unsettled--;
+                }
+                space.relaxEdges(offsets, targets, weights, current, distance);
+            }
+            for (int i = 0; i < ends.length; i++) {
+                long distance = ends[i] >= 0 && ends[i] < getNodeCount() ? space.getDistance(ends[i]) : Long.MAX_VALUE;
+                lengths[i] = distance == Long.MAX_VALUE ? -1 : distance;
+            }
+            return lengths;
+        } finally {
+            releaseSearchSpace(space);
+        }
+    }
+
+    private SearchSpace acquireSearchSpace() {
+        SearchSpace space = searchSpaces.poll();
+        return space != null ? space : new SearchSpace(getNodeCount());
+    }
+
+    private void releaseSearchSpace(SearchSpace space) {
+        space.finishQuery();
+        searchSpaces.offer(space);
+    }
+}
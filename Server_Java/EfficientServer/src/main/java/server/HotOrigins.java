@@ -0,0 +1,116 @@
+package server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shortest path trees of the most frequently queried OneToAll origins
+ * An origin gets a tree once it was queried often enough, the tree is then repaired from the change journal for
+ * every newer snapshot instead of running a whole search. The trees are evicted in LRU order, the query counts of
+ * the origins without a tree are kept for a bounded number of recent origins
+ */
+final class HotOrigins {
+    private static final long MISS = -1;
+    private static final int TRACKED_ORIGINS = 4096;
+
+    private final int capacity;
+    private final int threshold;
+    private final ChangeJournal journal;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Integer, ShortestPathTree> trees;
+    private final LinkedHashMap<Integer, Integer> queryCounts;
+
+    /**
+     * @param capacity - the maximum number of origins with a tree, 0 disables the trees
+     * @param threshold - the number of queries after which an origin gets a tree
+     * @param journal - the journal of the changed edges of the graph
+     */
+    HotOrigins(int capacity, int threshold, ChangeJournal journal) {
+        this.capacity = capacity;
+        this.threshold = threshold;
+        this.journal = journal;
+        this.trees = new LinkedHashMap<>(16, 0.75f, true) { //Access order for the LRU eviction
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ShortestPathTree> eldest) {
+                return size() > HotOrigins.this.capacity;
+            }
+        };
+        this.queryCounts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+                return size() > TRACKED_ORIGINS;
+            }
+        };
+    }
+
+    /**
+     * Count a OneToAll query and answer it from the tree of the origin if it is hot
+     * @param snapshot - the snapshot the query runs on
+     * @param origin - the id of the origin node
+     * @return the total length of the shortest paths, -1 if the origin has no tree usable for the snapshot
+     */
+    long totalLength(GraphSnapshot snapshot, int origin) {
+        if (capacity == 0 || origin >= snapshot.getNodeCount()) {
+            return MISS;
+        }
+        ShortestPathTree tree;
+        lock.lock();
+        try {
+            tree = trees.get(origin);
+            if (tree == null) {
+                int count = queryCounts.merge(origin, 1, Integer::sum);
+                if (count < threshold) {
+                    return MISS;
+                }
+                queryCounts.remove(origin);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (tree == null) {
+            //The first search runs outside the lock, the other origins stay available meanwhile
+            tree = new ShortestPathTree(snapshot, origin);
+            long totalLength = tree.getTotalLength(); //Read before the tree is published and repaired by others
+            lock.lock();
+            try {
+                trees.putIfAbsent(origin, tree);
+            } finally {
+                lock.unlock();
+            }
+            return totalLength;
+        }
+
+        tree.lock.lock();
+        try {
+            GraphSnapshot current = tree.getSnapshot();
+            if (current.getVersion() > snapshot.getVersion()) {
+                return MISS; //The tree already moved past the snapshot of this query
+            }
+            if (current.getVersion() < snapshot.getVersion()) {
+                long[] changed = journal.changesBetween(current.getJournalStart(), snapshot.getJournalEnd());
+                if (changed == null || changed.length > snapshot.getNodeCount() / 4) {
+                    tree.recompute(snapshot); //Repairing that many edges is not cheaper than a new search
+                } else {
+                    tree.repair(snapshot, changed);
+                }
+            }
+            return tree.getTotalLength();
+        } finally {
+            tree.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove every tree and query count, the node ids are reused after a reset
+     */
+    void clear() {
+        lock.lock();
+        try {
+            trees.clear();
+            queryCounts.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
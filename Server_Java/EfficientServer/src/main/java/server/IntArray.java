@@ -0,0 +1,124 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Fixed-size array of ints on the heap or in native memory, depending on OffHeap.ENABLED
+ * Only one of the implementations is loaded in a server, so the accessors are inlined like plain array accesses
+ */
+abstract class IntArray {
+    /**
+     * @param length - the number of elements
+     * @return a zeroed array
+     */
+    static IntArray allocate(int length) {
+        return OffHeap.ENABLED ? new Native(length) : new Heap(length);
+    }
+
+    abstract int length();
+
+    abstract int get(int index);
+
+    abstract void set(int index, int value);
+
+    abstract void fill(int value);
+
+    /**
+     * @param length - the length of the copy, the elements past the old length are zero
+     * @return a copy of the array
+     */
+    abstract IntArray copyOf(int length);
+
+    /**
+     * Release the memory right away, the array must not be accessed afterwards
+     */
+    abstract void free();
+
+    private static final class Heap extends IntArray {
+        private final int[] values;
+
+        Heap(int length) {
+            values = new int[length];
+        }
+
+        private Heap(int[] values) {
+            this.values = values;
+        }
+
+        @Override
+        int length() {
+            return values.length;
+        }
+
+        @Override
+        int get(int index) {
+            return values[index];
+        }
+
+        @Override
+        void set(int index, int value) {
+            values[index] = value;
+        }
+
+        @Override
+        void fill(int value) {
+            Arrays.fill(values, value);
+        }
+
+        @Override
+        IntArray copyOf(int length) {
+            return new Heap(Arrays.copyOf(values, length));
+        }
+
+        @Override
+        void free() {
+        }
+    }
+
+    private static final class Native extends IntArray {
+        private final ByteBuffer memory;
+        private final int length;
+
+        Native(int length) {
+            this(OffHeap.allocate((long) length * Integer.BYTES), length);
+        }
+
+        private Native(ByteBuffer memory, int length) {
+            this.memory = memory;
+            this.length = length;
+        }
+
+        @Override
+        int length() {
+            return length;
+        }
+
+        @Override
+        int get(int index) {
+            return memory.getInt(index * Integer.BYTES);
+        }
+
+        @Override
+        void set(int index, int value) {
+            memory.putInt(index * Integer.BYTES, value);
+        }
+
+        @Override
+        void fill(int value) {
+            for (int i = 0; i < length; i++) {
+                memory.putInt(i * Integer.BYTES, value);
+            }
+        }
+
+        @Override
+        IntArray copyOf(int newLength) {
+            return new Native(OffHeap.copyOf(memory, (long) newLength * Integer.BYTES), newLength);
+        }
+
+        @Override
+        void free() {
+            OffHeap.free(memory);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Indexed binary min-heap of node ids with long keys, used by the Dijkstra searches
+ * Every node is stored at most once, a smaller key for a queued node is applied as a decrease-key,
+ * so no wrapper objects or boxed distances are created during a search
+ */
+final class IntMinHeap {
+    private final int[] nodes; //Heap ordered node ids
+    private final long[] keys; //Keys of the heap slots, kept next to the nodes for locality
+    private final int[] positions; //Heap slot of every node, -1 if the node is not queued
+    private int size = 0;
+
+    /**
+     * @param capacity - the number of nodes that can be queued (node ids are in [0, capacity))
+     */
+    IntMinHeap(int capacity) {
+        nodes = new int[capacity];
+        keys = new long[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the smallest key in the heap, the heap must not be empty
+     */
+    long peekKey() {
+        return keys[0];
+    }
+
+    /**
+     * Insert a node or lower the key of an already queued node
+     * A key that is not smaller than the queued one is ignored
+     * @param node - the node id
+     * @param key - the new key of the node
+     */
+    void insertOrDecrease(int node, long key) {
+        int slot = positions[node];
+        if (slot < 0) {
+            slot = size++;
+        } else if (keys[slot] <= key) {
+            return;
+        }
+        siftUp(slot, node, key);
+    }
+
+    /**
+     * Remove the node with the smallest key
+     * @return the removed node id, its key is the value of peekKey() before the call
+     */
+    int poll() {
+        int top = nodes[0];
+        positions[top] = -1;
+        int lastSlot = --size;
+        if (lastSlot > 0) {
+            siftDown(nodes[lastSlot], keys[lastSlot]);
+        }
+        return top;
+    }
+
+    /**
+     * Remove every queued node, only touching the occupied slots
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[nodes[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int slot, int node, long key) {
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            place(slot, nodes[parent], keys[parent]);
+            slot = parent;
+        }
+        place(slot, node, key);
+    }
+
+    private void siftDown(int node, long key) {
+        int slot = 0;
+        int half = size >>> 1;
+        while (slot < half) {
+            int child = 2 * slot + 1;
+            int right = child + 1;
+            if (right < size && keys[right] < keys[child]) {
+                child = right;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            place(slot, nodes[child], keys[child]);
+            slot = child;
+        }
+        place(slot, node, key);
+    }
+
+    private void place(int slot, int node, long key) {
+        nodes[slot] = node;
+        keys[slot] = key;
+        positions[node] = slot;
+    }
+}
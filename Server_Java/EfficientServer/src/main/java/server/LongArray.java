@@ -0,0 +1,124 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Fixed-size array of longs on the heap or in native memory, depending on OffHeap.ENABLED
+ * Only one of the implementations is loaded in a server, so the accessors are inlined like plain array accesses
+ */
+abstract class LongArray {
+    /**
+     * @param length - the number of elements
+     * @return a zeroed array
+     */
+    static LongArray allocate(int length) {
+        return OffHeap.ENABLED ? new Native(length) : new Heap(length);
+    }
+
+    abstract int length();
+
+    abstract long get(int index);
+
+    abstract void set(int index, long value);
+
+    abstract void fill(long value);
+
+    /**
+     * @param length - the length of the copy, the elements past the old length are zero
+     * @return a copy of the array
+     */
+    abstract LongArray copyOf(int length);
+
+    /**
+     * Release the memory right away, the array must not be accessed afterwards
+     */
+    abstract void free();
+
+    private static final class Heap extends LongArray {
+        private final long[] values;
+
+        Heap(int length) {
+            values = new long[length];
+        }
+
+        private Heap(long[] values) {
+            this.values = values;
+        }
+
+        @Override
+        int length() {
+            return values.length;
+        }
+
+        @Override
+        long get(int index) {
+            return values[index];
+        }
+
+        @Override
+        void set(int index, long value) {
+            values[index] = value;
+        }
+
+        @Override
+        void fill(long value) {
+            Arrays.fill(values, value);
+        }
+
+        @Override
+        LongArray copyOf(int length) {
+            return new Heap(Arrays.copyOf(values, length));
+        }
+
+        @Override
+        void free() {
+        }
+    }
+
+    private static final class Native extends LongArray {
+        private final ByteBuffer memory;
+        private final int length;
+
+        Native(int length) {
+            this(OffHeap.allocate((long) length * Long.BYTES), length);
+        }
+
+        private Native(ByteBuffer memory, int length) {
+            this.memory = memory;
+            this.length = length;
+        }
+
+        @Override
+        int length() {
+            return length;
+        }
+
+        @Override
+        long get(int index) {
+            return memory.getLong(index * Long.BYTES);
+        }
+
+        @Override
+        void set(int index, long value) {
+            memory.putLong(index * Long.BYTES, value);
+        }
+
+        @Override
+        void fill(long value) {
+            for (int i = 0; i < length; i++) {
+                memory.putLong(i * Long.BYTES, value);
+            }
+        }
+
+        @Override
+        LongArray copyOf(int newLength) {
+            return new Native(OffHeap.copyOf(memory, (long) newLength * Long.BYTES), newLength);
+        }
+
+        @Override
+        void free() {
+            OffHeap.free(memory);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Isolated graphs selected by the namespace of the requests
+ * Every namespace has its own graph and its own single writer, so the Walks and the resets of unrelated workloads
+ * never wait for each other, and a reset only clears its own namespace. The default (empty) namespace is the graph
+ * of the server, the only one persisted and replicated. The other namespaces are created by their first request,
+ * kept only in memory, and closed once they had no request for -Dserver.namespaces.idleMillis
+ */
+public final class Namespaces {
+    private static final int MAX_NAMESPACES = Integer.getInteger("server.namespaces.max", 64); //Besides the default one
+    private static final long IDLE_MILLIS = Long.getLong("server.namespaces.idleMillis", 10 * 60 * 1000);
+
+    private final Namespace defaultNamespace;
+    private final ConcurrentHashMap<String, Namespace> namespaces = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "namespace-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Graph and single writer of one namespace
+     */
+    static final class Namespace {
+        final String name;
+        final Graph graph;
+        final WalkIngestor walkIngestor;
+        private final AtomicInteger inFlight = new AtomicInteger(); //Requests holding the namespace, it is not evicted meanwhile
+        private volatile long lastUsed = System.nanoTime();
+
+        private Namespace(String name, Graph graph, WalkIngestor walkIngestor) {
+            this.name = name;
+            this.graph = graph;
+            this.walkIngestor = walkIngestor;
+        }
+
+        /**
+         * Create an empty namespace whose single writer is started once it is published
+         */
+        private Namespace(String name) {
+            this.name = name;
+            this.graph = new Graph();
+            this.walkIngestor = new WalkIngestor(graph, null, false);
+        }
+
+        boolean isDefault() {
+            return name.isEmpty();
+        }
+
+        /**
+         * Return the namespace acquired for a request once its response is ready
+         */
+        void release() {
+            if (!isDefault()) {
+                lastUsed = System.nanoTime();
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private boolean isIdle(long now) {
+            return inFlight.get() == 0 && now - lastUsed > TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS);
+        }
+
+        private void close() {
+            walkIngestor.close();
+            graph.close();
+        }
+    }
+
+    /**
+     * @param graph - the graph of the default namespace
+     * @param walkIngestor - the single writer of the default namespace
+     */
+    public Namespaces(Graph graph, WalkIngestor walkIngestor) {
+        this.defaultNamespace = new Namespace("", graph, walkIngestor);
+        long period = Math.max(IDLE_MILLIS / 4, 100);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the namespace of a request, creating it if it does not exist, it is kept until released
+     * @param name - the namespace of the request, empty for the default one
+     * @return the namespace, null if it does not exist and the maximum of namespaces is reached
+     */
+    Namespace acquire(String name) {
+        if (name.isEmpty()) {
+            return defaultNamespace; //Never evicted
+        }
+        while (true) {
+            //Counted under the lock of the key, so an idle namespace is either evicted before or kept after
+            Namespace namespace = namespaces.computeIfPresent(name, (key, existing) -> {
+                existing.inFlight.incrementAndGet();
+                return existing;
+            });
+            if (namespace != null) {
+                return namespace;
+            }
+            if (namespaces.size() >= MAX_NAMESPACES) {
+                return null;
+            }
+            //Built outside the lock of the map, held before it is published so it cannot be evicted right away
+            Namespace created = new Namespace(name);
+            created.inFlight.incrementAndGet();
+            if (namespaces.putIfAbsent(name, created) == null) {
+                created.walkIngestor.start();
+                ServerLog.log("Namespace " + name + " created");
+                return created;
+            }
+            created.close(); //Another request created it first, its writer was never started
+        }
+    }
+
+    /**
+     * @return the number of namespaces besides the default one
+     */
+    int size() {
+        return namespaces.size();
+    }
+
+    /**
+     * Close the namespaces without a request for the idle time
+     */
+    private void evictIdle() {
+        long now = System.nanoTime();
+        for (String name : namespaces.keySet()) {
+            Namespace[] evicted = new Namespace[1];
+            namespaces.computeIfPresent(name, (key, namespace) -> {
+                if (namespace.isIdle(now)) {
+                    evicted[0] = namespace;
+                    return null;
+                }
+                return namespace;
+            });
+            if (evicted[0] != null) {
+                evicted[0].close();
+                ServerLog.log("Namespace " + name + " evicted");
+            }
+        }
+    }
+}
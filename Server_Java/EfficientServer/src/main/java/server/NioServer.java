@@ -0,0 +1,343 @@
+package server;
+import server.proto.*;
+
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking front end of the server
+ * A few selector threads read the 4-byte length prefixed frames from the client channels into pooled direct buffers,
+ * and hand the parsed requests on: the Walks to the single writer, the OneTo* requests to the admission control. The requests of one connection are in flight together, but their responses are queued in the request order.
+ * Idle connections hold no thread and no buffer
+ */
+public class NioServer {
+    private static final int BUFFER_SIZE = 64 * 1024; //Size of the pooled read buffers, larger frames get a dedicated buffer
+    private static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+    private static final int MAX_PENDING_REQUESTS = 64; //Reading of a connection pauses above this many unprocessed requests
+
+    private final int port;
+    private final Namespaces namespaces;
+    private final ServerMetrics metrics;
+    private final SelectorLoop[] selectorLoops;
+    private final AdmissionControl admission;
+    private final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param port - the port to listen on
+     * @param namespaces - the namespaces whose single writers the Walks and resets are queued to
+     * @param metrics - the metrics the connections and requests are recorded in
+     * @param selectorCount - the number of selector threads
+     * @param admission - the admission control running the OneTo* requests
+     */
+    public NioServer(int port, Namespaces namespaces, ServerMetrics metrics, int selectorCount, AdmissionControl admission) throws IOException {
+        this.port = port;
+        this.namespaces = namespaces;
+        this.metrics = metrics;
+        this.admission = admission;
+        this.selectorLoops = new SelectorLoop[selectorCount];
+        for (int i = 0; i < selectorCount; i++) {
+            selectorLoops[i] = new SelectorLoop();
+        }
+    }
+
+    /**
+     * Accept connections on the calling thread and distribute them among the selector threads, never returns normally
+     */
+    public void run() throws IOException {
+        for (int i = 0; i < selectorLoops.length; i++) {
+            Thread thread = new Thread(selectorLoops[i], "nio-selector-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            int next = 0;
+            //Check for incoming connections constantly
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                selectorLoops[next].register(channel);
+                next = (next + 1) % selectorLoops.length;
+            }
+        }
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        if (buffer.isDirect() && buffer.capacity() == BUFFER_SIZE) {
+            buffer.clear();
+            bufferPool.offer(buffer);
+        }
+    }
+
+    /**
+     * Helper function to serialize a response with its length prefix
+     * @param response - the response to send
+     * @return the buffer ready to be written to the channel
+     */
+    private static ByteBuffer encodeResponse(Response response) throws IOException {
+        int length = response.getSerializedSize();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length);
+        CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        response.writeTo(out);
+        out.flush();
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * One selector thread serving a subset of the connections
+     */
+    private final class SelectorLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<Connection> interestUpdates = new ConcurrentLinkedQueue<>();
+
+        SelectorLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            newChannels.offer(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Ask the selector thread to recompute the interest set of a connection, callable from any thread
+         */
+        void requestInterestUpdate(Connection connection) {
+            interestUpdates.offer(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = newChannels.poll()) != null) {
+                        Connection connection = new Connection(channel, this);
+                        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    }
+                    Connection updated;
+                    while ((updated = interestUpdates.poll()) != null) {
+                        try {
+                            updated.resume();
+                        } catch (Exception e) {
+                            ServerLog.log("Client error: " + e.getMessage());
+                            updated.close();
+                        }
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        } catch (Exception e) {
+                            ServerLog.log("Client error: " + e.getMessage());
+                            connection.close();
+                        }
+                    }
+                } catch (Exception e) {
+                    ServerLog.log("Selector error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * State of one client connection
+     * The read buffer, the interest set and the futures are only touched by the selector thread,
+     * the response queue is shared with the threads completing the requests.
+     * At most MAX_PENDING_REQUESTS requests are in flight, the frames read beyond them wait in the read buffer.
+     * After the client shut down its output, the connection is closed once every pending response is written
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectorLoop loop;
+        private SelectionKey key;
+        private ByteBuffer readBuffer; //Holds a partial frame between reads, null while there is none
+        private final ConcurrentLinkedQueue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingRequests = new AtomicInteger();
+        private final RequestPipeline pipeline;
+        private CompletableFuture<Void> responseChain = CompletableFuture.completedFuture(null); //Completed when the last response is queued
+        private boolean inputClosed = false; //End of stream read, only the pending responses are left to write
+        private volatile boolean closed = false;
+
+        Connection(SocketChannel channel, SelectorLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            this.pipeline = new RequestPipeline(namespaces, admission, metrics);
+            metrics.connectionOpened();
+        }
+
+        /**
+         * Read the available bytes and dispatch the complete frames
+         */
+        void read() throws IOException {
+            if (readBuffer == null) {
+                readBuffer = acquireBuffer();
+            }
+            if (channel.read(readBuffer) < 0) {
+                inputClosed = true; //Half-closed, the requests read so far are still answered
+            }
+            parseFrames();
+            updateInterest();
+        }
+
+        /**
+         * Dispatch the frames left in the read buffer once requests finished, called on the selector thread
+         */
+        void resume() throws IOException {
+            if (closed) {
+                return;
+            }
+            parseFrames();
+            updateInterest();
+        }
+
+        /**
+         * Helper function to dispatch the complete frames of the read buffer while the connection is not overloaded
+         * The buffer is left in the write mode with the unparsed bytes at its start, or released if there are none
+         */
+        private void parseFrames() throws IOException {
+            if (readBuffer == null) {
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.remaining() >= 4 && pendingRequests.get() < MAX_PENDING_REQUESTS) {
+                int length = readBuffer.getInt(readBuffer.position());
+                if (length < 0 || length > MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                if (readBuffer.remaining() < 4 + length) {
+                    if (readBuffer.capacity() < 4 + length) {
+                        //The frame does not fit into a pooled buffer, move it to a dedicated one
+                        ByteBuffer large = ByteBuffer.allocate(4 + length);
+                        large.put(readBuffer);
+                        releaseBuffer(readBuffer);
+                        readBuffer = large;
+                        return;
+                    }
+                    break;
+                }
+                int start = readBuffer.position() + 4;
+                ByteBuffer frame = readBuffer.duplicate();
+                frame.position(start).limit(start + length);
+                readBuffer.position(start + length);
+                dispatch(Request.parseFrom(frame));
+            }
+
+            if (readBuffer.hasRemaining()) {
+                readBuffer.compact();
+            } else {
+                releaseBuffer(readBuffer);
+                readBuffer = null;
+            }
+        }
+
+        /**
+         * Start processing a request, its response is queued once every earlier response of the connection is queued
+         */
+        private void dispatch(Request request) {
+            pendingRequests.incrementAndGet();
+            CompletableFuture<Response> response = pipeline.process(request);
+            responseChain = responseChain.thenCombine(response, (previous, result) -> {
+                queueResponse(result);
+                return null;
+            });
+        }
+
+        /**
+         * Helper function to queue an encoded response for the selector thread
+         */
+        private void queueResponse(Response response) {
+            try {
+                outbox.offer(encodeResponse(response));
+            } catch (IOException e) {
+                ServerLog.log("Response error: " + e.getMessage());
+            }
+            pendingRequests.decrementAndGet();
+            loop.requestInterestUpdate(this); //Enable writing, and reading again if it was paused
+        }
+
+        /**
+         * Write the queued responses as far as the socket buffer allows
+         */
+        void write() throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = outbox.peek()) != null) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                outbox.poll();
+            }
+            updateInterest();
+        }
+
+        /**
+         * Read while the connection is not overloaded, write while there are queued responses,
+         * close a half-closed connection once everything is answered
+         */
+        void updateInterest() {
+            if (closed || !key.isValid()) {
+                return;
+            }
+            if (inputClosed && pendingRequests.get() == 0 && outbox.isEmpty()) {
+                close(); //A partial frame left in the read buffer is dropped
+                return;
+            }
+            int ops = 0;
+            if (!inputClosed && pendingRequests.get() < MAX_PENDING_REQUESTS) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (!outbox.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            metrics.connectionClosed();
+            if (key != null) {
+                key.cancel();
+            }
+            if (readBuffer != null) {
+                releaseBuffer(readBuffer);
+                readBuffer = null;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                ServerLog.log("Error closing socket: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package server;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Native memory of the off-heap storage backend (-Dserver.offHeap=true)
+ * The tables of the graph (the node coordinates and the spatial cells, the edge sums and counts, the CSR arrays of the
+ * query snapshots and of the contraction hierarchy) are then allocated outside the heap, so the GC never copies or
+ * scans them. The tables of the writer are freed as soon as they are replaced. A replaced snapshot or hierarchy may
+ * still be read by a running query, so its memory is released by the cleaner of its buffers once it is collected.
+ * The per-query working memory (SearchSpace) stays on the heap.
+ * The memory is allocated as direct buffers, limited by -XX:MaxDirectMemorySize (the -Xmx value by default)
+ */
+final class OffHeap {
+    static final boolean ENABLED = Boolean.getBoolean("server.offHeap");
+    private static final MethodHandle INVOKE_CLEANER = findCleaner();
+
+    private OffHeap() {
+    }
+
+    /**
+     * @param bytes - the size of the memory
+     * @return zeroed native memory in the native byte order
+     * @throws OutOfMemoryError if the direct memory limit (-XX:MaxDirectMemorySize) is reached
+     */
+    static ByteBuffer allocate(long bytes) {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Off-heap table of " + bytes + " bytes is too large");
+        }
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @param memory - the memory returned by allocate
+     * @param bytes - the size of the copy, the bytes past the old size are zero
+     * @return a copy of the memory
+     */
+    static ByteBuffer copyOf(ByteBuffer memory, long bytes) {
+        ByteBuffer copy = allocate(bytes);
+        copy.put(0, memory, 0, (int) Math.min(memory.capacity(), bytes));
+        return copy;
+    }
+
+    /**
+     * Release native memory right away instead of when the buffer is collected
+     * The buffer must not be accessed afterwards, not even by a racing reader
+     * @param buffer - the memory returned by allocate
+     */
+    static void free(ByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return; //Released by the GC
+        }
+        try {
+            INVOKE_CLEANER.invokeExact(buffer);
+        } catch (Throwable e) {
+            ServerLog.log("Error releasing off-heap memory: " + e.getMessage());
+        }
+    }
+
+    private static MethodHandle findCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
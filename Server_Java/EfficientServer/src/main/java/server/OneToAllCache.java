@@ -0,0 +1,92 @@
+package server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded LRU cache of the OneToAll total lengths
+ * The entries are keyed by the origin node and tagged with the version of the snapshot they were computed on,
+ * so an entry of an older graph version is never returned, it is simply overwritten by the next computation
+ */
+final class OneToAllCache {
+    private static final long MISS = -1;
+
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Integer, Entry> entries;
+
+    private static final class Entry {
+        final long version;
+        final long totalLength;
+
+        Entry(long version, long totalLength) {
+            this.version = version;
+            this.totalLength = totalLength;
+        }
+    }
+
+    /**
+     * @param capacity - the maximum number of cached origins, 0 disables the cache
+     */
+    OneToAllCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) { //Access order for the LRU eviction
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                return size() > OneToAllCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @param origin - the id of the origin node
+     * @param version - the version of the snapshot the query runs on
+     * @return the cached total length, -1 if there is no entry for this origin and version
+     */
+    long get(int origin, long version) {
+        if (capacity == 0) {
+            return MISS;
+        }
+        lock.lock();
+        try {
+            Entry entry = entries.get(origin);
+            return entry != null && entry.version == version ? entry.totalLength : MISS;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Store a computed total length, unless a result of a newer version is already cached for the origin
+     * @param origin - the id of the origin node
+     * @param version - the version of the snapshot the total was computed on
+     * @param totalLength - the computed total length
+     */
+    void put(int origin, long version, long totalLength) {
+        if (capacity == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            Entry entry = entries.get(origin);
+            if (entry == null || entry.version <= version) {
+                entries.put(origin, new Entry(version, totalLength));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove every entry, the node ids are reused after a reset
+     */
+    void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package server;
+import server.proto.*;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Primary side of the replication: streams every change applied by the single writer to the connected replicas
+ * A new replica first receives the whole graph, written on the applier thread so no later change is missed, then the
+ * applied Walk batches and resets in order. The graph is streamed in chunks of SNAPSHOT_CHUNK_SIZE bytes through the
+ * queue of the replica, so it is never held whole in memory, the writer waits at most SNAPSHOT_TIMEOUT_MILLIS for a
+ * free place in the queue before dropping the replica. Every replica has a bounded queue of frames, a replica lagging
+ * more than MAX_LAG frames behind is disconnected instead of slowing the writer down, and loads the whole graph again
+ * when it reconnects. The replicas acknowledge the applied frames, the difference is reported as the replication lag
+ * Only the default namespace is replicated, the other namespaces are rejected while the replication is on
+ */
+final class ReplicationPrimary implements WalkIngestor.Listener, ReplicationStatus {
+    private static final int MAX_LAG = Integer.getInteger("server.replication.maxLag", 1024); //Frames queued for one replica
+    private static final int SNAPSHOT_CHUNK_SIZE = 1 << 16;
+    private static final long SNAPSHOT_TIMEOUT_MILLIS = Long.getLong("server.replication.snapshotTimeoutMillis", 10_000);
+    private static final byte[] CLOSED = new byte[0]; //Queued to stop the sender of a closed replica
+
+    private final int port;
+    private final Graph graph;
+    private final WalkIngestor walkIngestor;
+    private final List<Replica> replicas = new CopyOnWriteArrayList<>();
+    private ServerSocket serverSocket;
+    private volatile long sequence = 0; //Changes applied by the primary, only written by the applier thread
+
+    /**
+     * Connection to one replica
+     */
+    private final class Replica {
+        final Socket socket;
+        final BlockingQueue<byte[]> frames = new ArrayBlockingQueue<>(MAX_LAG);
+        volatile long acknowledged;
+        volatile boolean closed;
+
+        Replica(Socket socket) {
+            this.socket = socket;
+        }
+
+        /**
+         * Send the queued frames until the connection fails
+         */
+        void send() {
+            try {
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 1 << 16);
+                while (true) {
+                    byte[] frame = frames.poll();
+                    if (frame == null) {
+                        out.flush();
+                        frame = frames.take();
+                    }
+                    if (frame == CLOSED) {
+                        return;
+                    }
+                    out.write(frame);
+                }
+            } catch (IOException | InterruptedException e) {
+                close("send failed: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Read the acknowledgements until the connection fails
+         */
+        void receiveAcks() {
+            try {
+                CodedInputStream input = CodedInputStream.newInstance(socket.getInputStream());
+                while (!input.isAtEnd()) {
+                    int length = Integer.reverseBytes(input.readRawLittleEndian32());
+                    int oldLimit = input.pushLimit(length);
+                    acknowledged = ReplicationAck.parseFrom(input).getSequence();
+                    input.popLimit(oldLimit);
+                    input.resetSizeCounter();
+                }
+                close("disconnected");
+            } catch (IOException e) {
+                close("acknowledgement failed: " + e.getMessage());
+            }
+        }
+
+        void close(String reason) {
+            closed = true;
+            if (replicas.remove(this)) {
+                ServerLog.log("Replica " + socket.getRemoteSocketAddress() + " " + reason);
+            }
+            frames.clear();
+            frames.offer(CLOSED);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                ServerLog.log("Error closing replica socket: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param port - the port the replicas connect to
+     * @param graph - the graph sent to a new replica
+     * @param walkIngestor - the single writer the changes are taken from
+     */
+    ReplicationPrimary(int port, Graph graph, WalkIngestor walkIngestor) {
+        this.port = port;
+        this.graph = graph;
+        this.walkIngestor = walkIngestor;
+    }
+
+    /**
+     * Start listening for the replicas on a background thread
+     */
+    void start() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port);
+        this.serverSocket = serverSocket;
+        walkIngestor.setListener(this);
+        startThread(() -> {
+            while (true) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    socket.setTcpNoDelay(true);
+                    connect(new Replica(socket));
+                } catch (IOException | InterruptedException e) {
+                    ServerLog.log("Replication error: " + e.getMessage());
+                    return;
+                }
+            }
+        }, "replication-acceptor");
+        ServerLog.log("Replication listening on port " + serverSocket.getLocalPort());
+    }
+
+    /**
+     * @return the port the replicas connect to, the chosen one when started with 0
+     */
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stop accepting replicas and disconnect the connected ones
+     */
+    void close() throws IOException {
+        serverSocket.close();
+        for (Replica replica : replicas) {
+            replica.close("closed by the primary");
+        }
+    }
+
+    /**
+     * Helper function to send the whole graph to a new replica and subscribe it to the next changes
+     */
+    private void connect(Replica replica) throws InterruptedException {
+        walkIngestor.submitTask(() -> {
+            //On the applier thread, so the graph matches the sequence and the next frame continues it
+            replica.acknowledged = sequence;
+            replicas.add(replica);
+            startThread(replica::send, "replication-send");
+            startThread(replica::receiveAcks, "replication-ack");
+            try (DataOutputStream out = new DataOutputStream(new SnapshotStream(replica, graph.getSnapshotSize()))) {
+                graph.writeSnapshot(out);
+            } catch (IOException e) {
+                replica.close("snapshot failed: " + e.getMessage());
+                return;
+            }
+            ServerLog.log("Replica " + replica.socket.getRemoteSocketAddress() + " connected at change " + sequence);
+        });
+    }
+
+    /**
+     * Cuts the written graph into SnapshotChunk frames queued to one replica
+     */
+    private final class SnapshotStream extends OutputStream {
+        private final Replica replica;
+        private final long totalSize;
+        private final byte[] chunk = new byte[SNAPSHOT_CHUNK_SIZE];
+        private int length = 0;
+
+        /**
+         * @param replica - the replica the chunks are queued to
+         * @param totalSize - the number of bytes that will be written
+         */
+        SnapshotStream(Replica replica, long totalSize) {
+            this.replica = replica;
+            this.totalSize = totalSize;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            chunk[length++] = (byte) b;
+            if (length == chunk.length) {
+                flushChunk();
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) throws IOException {
+            while (count > 0) {
+                int copied = Math.min(count, chunk.length - length);
+                System.arraycopy(bytes, offset, chunk, length, copied);
+                length += copied;
+                offset += copied;
+                count -= copied;
+                if (length == chunk.length) {
+                    flushChunk();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (length > 0) {
+                flushChunk();
+            }
+        }
+
+        /**
+         * Helper function to queue the written bytes as one chunk, waiting for the sender of the replica if needed
+         */
+        private void flushChunk() throws IOException {
+            byte[] frame = frame(ReplicationFrame.newBuilder().setSequence(sequence).setSnapshot(SnapshotChunk.newBuilder()
+                    .setTotalSize(totalSize).setData(ByteString.copyFrom(chunk, 0, length))).build());
+            length = 0;
+            try {
+                if (replica.closed || !replica.frames.offer(frame, SNAPSHOT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("replica not receiving the graph");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted");
+            }
+        }
+    }
+
+    @Override
+    public void walksApplied(List<Walk> walks) {
+        publish(ReplicationFrame.newBuilder().setSequence(++sequence)
+                .setWalks(WalkBatch.newBuilder().addAllWalks(walks)).build());
+    }
+
+    @Override
+    public void graphReset() {
+        publish(ReplicationFrame.newBuilder().setSequence(++sequence).setReset(Reset.getDefaultInstance()).build());
+    }
+
+    @Override
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    @Override
+    public long getReplicationLag() {
+        long lag = 0;
+        for (Replica replica : replicas) {
+            lag = Math.max(lag, sequence - replica.acknowledged);
+        }
+        return lag;
+    }
+
+    /**
+     * Helper function to queue a frame to every replica, dropping the replicas that are too far behind
+     */
+    private void publish(ReplicationFrame message) {
+        if (replicas.isEmpty()) {
+            return;
+        }
+        byte[] frame = frame(message);
+        for (Replica replica : replicas) {
+            if (!replica.frames.offer(frame)) {
+                replica.close("lagging more than " + MAX_LAG + " changes, disconnected");
+            }
+        }
+    }
+
+    /**
+     * @return the message with its big-endian length, ready to be written
+     */
+    private static byte[] frame(ReplicationFrame message) {
+        byte[] frame = new byte[4 + message.getSerializedSize()];
+        CodedOutputStream output = CodedOutputStream.newInstance(frame);
+        try {
+            output.writeFixed32NoTag(Integer.reverseBytes(message.getSerializedSize()));
+            message.writeTo(output);
+        } catch (IOException e) {
+            throw new IllegalStateException("Frame size mismatch", e); //Cannot happen with an array of the exact size
+        }
+        return frame;
+    }
+
+    private static void startThread(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
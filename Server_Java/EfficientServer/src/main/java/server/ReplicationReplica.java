@@ -0,0 +1,170 @@
+package server;
+import server.proto.*;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replica side of the replication: keeps the local graph a copy of the primary's one
+ * The received frames go through the local single writer like the Walks of the clients, the whole graph of the first
+ * frames is collected chunk by chunk and then replaces the local one. Every applied frame is acknowledged to the
+ * primary. A lost connection is retried, the primary then sends the whole graph again
+ */
+final class ReplicationReplica implements ReplicationStatus {
+    private static final long RECONNECT_MILLIS = Long.getLong("server.replication.reconnectMillis", 1000);
+
+    private final String host;
+    private final int port;
+    private final Graph graph;
+    private final WalkIngestor walkIngestor;
+    private final ExecutorService ackSender = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "replication-ack");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long received = 0; //Sequence of the last received frame
+    private volatile long applied = 0; //Sequence of the last applied frame
+    private volatile Socket socket;
+    private volatile boolean closed;
+    private ByteBuffer snapshot; //The chunks of the graph received so far, only used by the replica thread
+
+    /**
+     * @param primary - the host:port of the replication port of the primary
+     * @param graph - the local graph
+     * @param walkIngestor - the local single writer
+     */
+    ReplicationReplica(String primary, Graph graph, WalkIngestor walkIngestor) {
+        int separator = primary.lastIndexOf(':');
+        this.host = primary.substring(0, separator);
+        this.port = Integer.parseInt(primary.substring(separator + 1));
+        this.graph = graph;
+        this.walkIngestor = walkIngestor;
+    }
+
+    /**
+     * Start following the primary on a background thread
+     */
+    void start() {
+        Thread follower = new Thread(this::follow, "replication-replica");
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    /**
+     * Stop following the primary
+     */
+    void close() throws IOException {
+        closed = true;
+        Socket socket = this.socket;
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    @Override
+    public int getReplicaCount() {
+        return 0;
+    }
+
+    @Override
+    public long getReplicationLag() {
+        return received - applied;
+    }
+
+    /**
+     * Main loop of the replica thread: apply the frames of the primary, reconnecting after an error
+     */
+    private void follow() {
+        while (!closed) {
+            try (Socket socket = new Socket(host, port)) {
+                this.socket = socket;
+                snapshot = null;
+                socket.setTcpNoDelay(true);
+                ServerLog.log("Replicating from " + host + ":" + port);
+                CodedInputStream input = CodedInputStream.newInstance(socket.getInputStream(), 64 * 1024);
+                CodedOutputStream output = CodedOutputStream.newInstance(socket.getOutputStream(), 64);
+                while (!input.isAtEnd()) {
+                    int length = Integer.reverseBytes(input.readRawLittleEndian32());
+                    int oldLimit = input.pushLimit(length);
+                    ReplicationFrame frame = ReplicationFrame.parseFrom(input);
+                    input.popLimit(oldLimit);
+                    input.resetSizeCounter();
+                    apply(frame, output);
+                }
+                ServerLog.log("Primary closed the replication");
+            } catch (IOException e) {
+                ServerLog.log("Replication error: " + e.getMessage());
+            } catch (InterruptedException e) {
+                ServerLog.log("Replication interrupted");
+                return;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Helper function to queue a frame to the local single writer and acknowledge it once applied
+     */
+    private void apply(ReplicationFrame frame, CodedOutputStream output) throws IOException, InterruptedException {
+        long sequence = frame.getSequence();
+        received = sequence;
+        CompletableFuture<Void> done;
+        switch (frame.getChangeCase()) {
+            case SNAPSHOT:
+                SnapshotChunk chunk = frame.getSnapshot();
+                if (snapshot == null) {
+                    if (chunk.getTotalSize() > Integer.MAX_VALUE) {
+                        throw new IOException("Graph of " + chunk.getTotalSize() + " bytes is too large to load");
+                    }
+                    snapshot = ByteBuffer.allocate((int) chunk.getTotalSize());
+                }
+                chunk.getData().copyTo(snapshot);
+                if (snapshot.hasRemaining()) {
+                    return; //Acknowledged once the whole graph is loaded
+                }
+                ByteBuffer loaded = snapshot.flip();
+                snapshot = null;
+                done = walkIngestor.submitTask(() -> graph.loadSnapshot(loaded));
+                break;
+            case WALKS:
+                done = CompletableFuture.completedFuture(null);
+                for (Walk walk : frame.getWalks().getWalksList()) {
+                    done = walkIngestor.submitWalk(walk);
+                }
+                break;
+            case RESET:
+                done = walkIngestor.submitReset();
+                break;
+            default:
+                ServerLog.log("Unknown replication frame " + frame.getChangeCase());
+                return;
+        }
+        //The single writer applies the updates in order, so the acknowledgements are sent in order too
+        done.whenCompleteAsync((ignored, error) -> {
+            if (error != null) {
+                ServerLog.log("Error applying replication frame " + sequence + ": " + error.getMessage());
+            }
+            applied = sequence;
+            try {
+                ReplicationAck ack = ReplicationAck.newBuilder().setSequence(sequence).build();
+                output.writeFixed32NoTag(Integer.reverseBytes(ack.getSerializedSize()));
+                ack.writeTo(output);
+                output.flush();
+            } catch (IOException e) {
+                ServerLog.log("Replication acknowledgement error: " + e.getMessage()); //The read fails too
+            }
+        }, ackSender);
+    }
+}
@@ -0,0 +1,16 @@
+package server;
+
+/**
+ * State of the replication reported in the metrics, by a primary or by a replica
+ */
+interface ReplicationStatus {
+    /**
+     * @return the number of connected replicas, 0 on a replica
+     */
+    int getReplicaCount();
+
+    /**
+     * @return the number of changes not applied yet, by the slowest replica of a primary or by the replica itself
+     */
+    long getReplicationLag();
+}
@@ -0,0 +1,166 @@
+package server;
+import server.proto.*;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Ordering of the pipelined requests of one connection
+ * The requests are started as soon as they are read, but every request sees the graph exactly as if the requests
+ * of the connection were processed one by one: a OneTo* request runs once the Walks and resets received before it
+ * are applied, and a Walk or reset is queued to the single writer only after the OneTo* requests received before it
+ * finished. Consecutive Walks are still applied in batches and consecutive OneTo* requests run in parallel.
+ * The updates are queued without blocking, a full writer queue never stalls the thread reading the connection.
+ * The OneTo* requests go through the admission control once the updates before them are applied, so a query waiting
+ * for the Walks of its own connection holds no place in its lane, and a refused one is answered with an ERROR.
+ * The order is kept across the namespaces too, the requests of one connection run on the graph of their own namespace.
+ * The responses have to be sent in the order of the returned futures. Only used by the thread reading the connection
+ */
+final class RequestPipeline {
+    private static final CompletableFuture<Response> DONE = CompletableFuture.completedFuture(null);
+    private static final boolean READ_ONLY = !System.getProperty("server.replicaOf", "").isEmpty(); //Replicas only answer queries
+    private static final boolean REPLICATED = READ_ONLY || Integer.getInteger("server.replicationPort", 0) != 0; //Only the default namespace is replicated
+
+    private final Namespaces namespaces;
+    private final AdmissionControl admission;
+    private final ServerMetrics metrics;
+    private CompletableFuture<?> lastUpdate = DONE; //Completed when the last Walk or reset is applied
+    private CompletableFuture<?> lastSubmission = DONE; //Completed when the last Walk or reset is queued to the writer
+    private CompletableFuture<?> queries = DONE; //Completed when the OneTo* requests since the last update finished
+
+    /**
+     * @param namespaces - the namespaces whose single writers the Walks and resets are queued to
+     * @param admission - the admission control running the OneTo* requests
+     * @param metrics - the metrics the requests are recorded in
+     */
+    RequestPipeline(Namespaces namespaces, AdmissionControl admission, ServerMetrics metrics) {
+        this.namespaces = namespaces;
+        this.admission = admission;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Start processing a request read from the connection
+     * @param request - the received request parsed from the protobuf message
+     * @return the future of the response, it is never completed exceptionally
+     */
+    CompletableFuture<Response> process(Request request) {
+        long received = System.nanoTime();
+        ServerMetrics.RequestType type = ServerMetrics.RequestType.of(request);
+        if (REPLICATED && !request.getNamespace().isEmpty()) {
+            return CompletableFuture.completedFuture(record(type, received, Response.newBuilder()
+                    .setStatus(Response.Status.ERROR).setErrMsg("Namespaces are not replicated, use the default one").build()));
+        }
+        if (READ_ONLY && (request.hasWalk() || request.hasReset())) {
+            return CompletableFuture.completedFuture(record(type, received, Response.newBuilder()
+                    .setStatus(Response.Status.ERROR).setErrMsg("Read-only replica, send the updates to the primary").build()));
+        }
+        Namespaces.Namespace namespace = namespaces.acquire(request.getNamespace());
+        if (namespace == null) {
+            return CompletableFuture.completedFuture(record(type, received, Response.newBuilder()
+                    .setStatus(Response.Status.ERROR).setErrMsg("Too many namespaces").build()));
+        }
+        CompletableFuture<Response> response = process(request, namespace, type, received);
+        if (!namespace.isDefault()) {
+            response.whenComplete((result, e) -> namespace.release()); //Kept from eviction until answered
+        }
+        return response;
+    }
+
+    /**
+     * Helper function to order a request of an acquired namespace after the earlier requests of the connection
+     */
+    private CompletableFuture<Response> process(Request request, Namespaces.Namespace namespace, ServerMetrics.RequestType type, long received) {
+        if (!request.hasWalk() && !request.hasReset()) {
+            CompletableFuture<Response> response = lastUpdate.isDone()
+                    ? runQuery(request, namespace, type, received)
+                    : lastUpdate.handle((previous, e) -> request).thenCompose(ignored -> runQuery(request, namespace, type, received));
+            queries = queries.isDone() ? response : CompletableFuture.allOf(queries, response);
+            return response;
+        }
+
+        if (request.hasReset()) {
+            ServerLog.log("Reset request received");
+        }
+        CompletableFuture<CompletableFuture<Void>> submission;
+        if (lastSubmission.isDone() && queries.isDone()) {
+            submission = submit(namespace.walkIngestor, request); //Nothing to wait for, queue it right away
+        } else {
+            //Queued by the thread completing the last earlier request, after the earlier Walks were queued
+            submission = lastSubmission.runAfterBoth(queries, () -> {}).handle((ignored, e) -> request)
+                    .thenCompose(ignored -> submit(namespace.walkIngestor, request));
+        }
+        CompletableFuture<Response> response = submission.thenCompose(applied -> applied).handle((applied, e) -> {
+            if (e == null) {
+                return record(type, received, Response.newBuilder().setStatus(Response.Status.OK).build());
+            }
+            if (request.hasWalk() && !(e.getCause() instanceof IOException)) {
+                ServerLog.log("Error during Walk request processing: " + e.getMessage());
+                return record(type, received, Response.newBuilder().setStatus(Response.Status.OK).build());
+            }
+            if (request.hasWalk()) {
+                return record(type, received, Response.newBuilder().setStatus(Response.Status.ERROR)
+                        .setErrMsg(e.getCause().getMessage()).build()); //Not logged, so not applied either
+            }
+            ServerLog.log("Reset error: " + e.getMessage());
+            return record(type, received, Response.newBuilder().setStatus(Response.Status.ERROR).setErrMsg(e.getMessage()).build());
+        });
+        lastSubmission = submission;
+        lastUpdate = response;
+        queries = DONE;
+        return response;
+    }
+
+    /**
+     * Helper function to admit a query whose earlier updates are applied and run it on the executor of its lane
+     * Called by the thread completing the last earlier update, so it only touches the thread-safe state
+     * @return the future of the response, completed with an ERROR right away if the query is refused
+     */
+    private CompletableFuture<Response> runQuery(Request request, Namespaces.Namespace namespace,
+                                                 ServerMetrics.RequestType type, long received) {
+        AdmissionControl.Ticket ticket = admission.admit(request, namespace.graph, received);
+        if (ticket == null) {
+            return CompletableFuture.completedFuture(record(type, received, Response.newBuilder()
+                    .setStatus(Response.Status.ERROR).setErrMsg(AdmissionControl.OVERLOADED).build()));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            long started = System.nanoTime();
+            metrics.recordQueryWait(started - received);
+            if (ticket.isExpired()) {
+                ticket.release(0);
+                return record(type, received, Response.newBuilder()
+                        .setStatus(Response.Status.ERROR).setErrMsg(AdmissionControl.DEADLINE_EXCEEDED).build());
+            }
+            try {
+                return record(type, received, TCPServer.processRequest(namespace, request));
+            } finally {
+                ticket.release(System.nanoTime() - started);
+            }
+        }, ticket.lane.executor);
+    }
+
+    private Response record(ServerMetrics.RequestType type, long received, Response response) {
+        metrics.recordRequest(type, System.nanoTime() - received, response.getStatus() != Response.Status.OK);
+        return response;
+    }
+
+    /**
+     * Helper function to queue a Walk or a reset to the single writer of its namespace without blocking
+     * While the queue of the writer is full the update is queued again from the applier thread once it has space,
+     * the connection meanwhile stops reading at its limit of pending requests
+     * @return a future completed when the update is queued, holding the future completed when it is applied
+     */
+    private CompletableFuture<CompletableFuture<Void>> submit(WalkIngestor walkIngestor, Request request) {
+        try {
+            CompletableFuture<Void> applied = request.hasWalk()
+                    ? walkIngestor.offerWalk(request.getWalk())
+                    : walkIngestor.offerReset();
+            if (applied != null) {
+                return CompletableFuture.completedFuture(applied);
+            }
+            return walkIngestor.whenQueueHasSpace().thenCompose(space -> submit(walkIngestor, request));
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(CompletableFuture.failedFuture(e));
+        }
+    }
+}
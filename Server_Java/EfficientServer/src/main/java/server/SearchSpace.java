@@ -0,0 +1,133 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Working memory of one Dijkstra search over node ids 0..n-1
+ * The distances are invalidated by bumping the epoch instead of clearing the array, so a reused search space
+ * costs nothing for the nodes the previous search did not touch
+ */
+final class SearchSpace {
+    private static final LongAdder settledNodes = new LongAdder(); //Nodes settled by the searches of all the queries
+
+    final IntMinHeap queue;
+    private final long[] distances;
+    private final int[] epochs;
+    private int epoch = 0;
+    private int settled = 0; //Nodes settled by the current search
+
+    /**
+     * @param nodeCount - the number of nodes the searches run on
+     */
+    SearchSpace(int nodeCount) {
+        distances = new long[nodeCount];
+        epochs = new int[nodeCount];
+        queue = new IntMinHeap(nodeCount);
+    }
+
+    /**
+     * Forget the previous search and queue the root of a new one
+     * @param root - the node the search starts from
+     */
+    void start(int root) {
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(epochs, 0);
+            epoch = 1;
+        }
+        settled = 0;
+        setDistance(root, 0);
+        queue.insertOrDecrease(root, 0);
+    }
+
+    /**
+     * Drop the nodes still queued, must be called before the search space is reused
+     */
+    void finish() {
+        queue.clear();
+    }
+
+    /**
+     * Finish the search of a query, counting its settled nodes in the metrics
+     */
+    void finishQuery() {
+        settledNodes.add(settled);
+        finish();
+    }
+
+    /**
+     * @param count - the number of nodes settled by a query without a search space
+     */
+    static void addSettledNodes(long count) {
+        settledNodes.add(count);
+    }
+
+    /**
+     * @return the number of nodes settled by the searches of all the queries
+     */
+    static long getSettledNodes() {
+        return settledNodes.sum();
+    }
+
+    /**
+     * @param node - the node id
+     * @return the tentative distance of the node, Long.MAX_VALUE if the node was not reached
+     */
+    long getDistance(int node) {
+        return epochs[node] == epoch ? distances[node] : Long.MAX_VALUE;
+    }
+
+    void setDistance(int node, long distance) {
+        distances[node] = distance;
+        epochs[node] = epoch;
+    }
+
+    /**
+     * Relax the edges of a settled node
+     * @param edgeOffsets - the CSR offsets of the searched direction
+     * @param edgeEnds - the CSR neighbors of the searched direction
+     * @param edgeWeights - the CSR weights of the searched direction
+     * @param node - the settled node
+     * @param distance - the final distance of the settled node
+     */
+    void relaxEdges(IntArray edgeOffsets, IntArray edgeEnds, IntArray edgeWeights, int node, long distance) {
+        settled++;
+        for (int edge = edgeOffsets.get(node), last = edgeOffsets.get(node + 1); edge < last; edge++) {
+            int neighbor = edgeEnds.get(edge);
+            long newDist = distance + edgeWeights.get(edge);
+            if (newDist < getDistance(neighbor)) {
+                setDistance(neighbor, newDist);
+                queue.insertOrDecrease(neighbor, newDist);
+            }
+        }
+    }
+
+    /**
+     * Relax the edges of a node settled by one side of a bidirectional search
+     * @param other - the working memory of the opposite side
+     * @param edgeOffsets - the CSR offsets of the direction of this side
+     * @param edgeEnds - the CSR neighbors of the direction of this side
+     * @param edgeWeights - the CSR weights of the direction of this side
+     * @param node - the settled node
+     * @param distance - the final distance of the settled node from the root of this side
+     * @param best - the length of the shortest path found so far
+     * @return the length of the shortest path found after relaxing the edges
+     */
+    long relaxEdges(SearchSpace other, IntArray edgeOffsets, IntArray edgeEnds, IntArray edgeWeights,
+                    int node, long distance, long best) {
+        settled++;
+        for (int edge = edgeOffsets.get(node), last = edgeOffsets.get(node + 1); edge < last; edge++) {
+            int neighbor = edgeEnds.get(edge);
+            long newDist = distance + edgeWeights.get(edge);
+            if (newDist < getDistance(neighbor)) {
+                setDistance(neighbor, newDist);
+                queue.insertOrDecrease(neighbor, newDist);
+                long otherDist = other.getDistance(neighbor);
+                if (otherDist != Long.MAX_VALUE && newDist + otherDist < best) {
+                    best = newDist + otherDist;
+                }
+            }
+        }
+        return best;
+    }
+}
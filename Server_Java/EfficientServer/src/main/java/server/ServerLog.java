@@ -0,0 +1,57 @@
+package server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous log of the server
+ * The request handlers only offer the message to a bounded queue, a daemon thread prints them, so a slow console
+ * never blocks a request. When the queue is full the message is dropped and counted instead
+ */
+final class ServerLog {
+    private static final BlockingQueue<String> messages = new ArrayBlockingQueue<>(Integer.getInteger("server.logQueueCapacity", 8192));
+    private static final AtomicLong dropped = new AtomicLong();
+
+    static {
+        Thread printer = new Thread(ServerLog::printMessages, "server-log");
+        printer.setDaemon(true);
+        printer.start();
+    }
+
+    private ServerLog() {
+    }
+
+    /**
+     * Queue a message for printing, never blocks
+     * @param message - the message to print
+     */
+    static void log(String message) {
+        if (!messages.offer(message)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of messages dropped because the queue was full
+     */
+    static long getDropped() {
+        return dropped.get();
+    }
+
+    private static void printMessages() {
+        long reportedDropped = 0;
+        while (true) {
+            try {
+                System.out.println(messages.take());
+                long currentDropped = dropped.get();
+                if (currentDropped != reportedDropped && messages.isEmpty()) {
+                    System.out.println((currentDropped - reportedDropped) + " log messages dropped");
+                    reportedDropped = currentDropped;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package server;
+import server.proto.*;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of the server, exposed over JMX and in the response to the Stats request
+ * Recording a request costs one histogram update and is wait-free, the percentiles are computed only when read
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    /**
+     * Types of the requests the metrics are kept for
+     */
+    enum RequestType {
+        WALK("Walk"), ONE_TO_ONE("OneToOne"), ONE_TO_ALL("OneToAll"), RESET("Reset"), STATS("Stats"), BATCH("Batch"), UNKNOWN("Unknown");
+
+        final String label;
+
+        RequestType(String label) {
+            this.label = label;
+        }
+
+        static RequestType of(Request request) {
+            if (request.hasWalk()) {
+                return WALK;
+            } else if (request.hasOneToOne()) {
+                return ONE_TO_ONE;
+            } else if (request.hasOneToAll()) {
+                return ONE_TO_ALL;
+            } else if (request.hasReset()) {
+                return RESET;
+            } else if (request.hasStats()) {
+                return STATS;
+            } else if (request.hasBatch()) {
+                return BATCH;
+            }
+            return UNKNOWN;
+        }
+    }
+
+    private final Graph graph;
+    private final WalkIngestor walkIngestor;
+    private final AdmissionControl admission;
+    private final Namespaces namespaces;
+    private final Histogram[] latencies = new Histogram[RequestType.values().length]; //Nanoseconds from reading a request to its response
+    private final LongAdder[] errors = new LongAdder[RequestType.values().length];
+    private final Histogram queryWaits = new ConcurrentHistogram(3); //Nanoseconds a OneTo* request waited for the Walks before it
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private volatile ReplicationStatus replication = null; //Null without the replication
+
+    /**
+     * @param graph - the graph the node and edge counts are read from
+     * @param walkIngestor - the single writer the Walk queue metrics are read from
+     * @param admission - the admission control the refused queries are read from
+     * @param namespaces - the namespaces of the server
+     */
+    public ServerMetrics(Graph graph, WalkIngestor walkIngestor, AdmissionControl admission, Namespaces namespaces) {
+        this.graph = graph;
+        this.walkIngestor = walkIngestor;
+        this.admission = admission;
+        this.namespaces = namespaces;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new ConcurrentHistogram(3);
+            errors[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Register the metrics with the platform MBean server as server:type=ServerMetrics
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("server:type=ServerMetrics"));
+        } catch (Exception e) {
+            ServerLog.log("Error registering the metrics MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Record a processed request
+     * @param type - the type of the request
+     * @param nanos - the time from reading the request to its response
+     * @param error - whether the response has the ERROR status
+     */
+    void recordRequest(RequestType type, long nanos, boolean error) {
+        latencies[type.ordinal()].recordValue(Math.max(nanos, 0));
+        if (error) {
+            errors[type.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Record the time a OneTo* request waited before it started
+     * @param nanos - the time from reading the request until a worker started it
+     */
+    void recordQueryWait(long nanos) {
+        queryWaits.recordValue(Math.max(nanos, 0));
+    }
+
+    /**
+     * @param replication - the primary or the replica side of the replication of this server
+     */
+    void setReplication(ReplicationStatus replication) {
+        this.replication = replication;
+    }
+
+    void connectionOpened() {
+        activeConnections.incrementAndGet();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    /**
+     * @return the current metrics as the payload of the response to Stats
+     */
+    ServerStats toProto() {
+        ServerStats.Builder stats = ServerStats.newBuilder();
+        for (RequestType type : RequestType.values()) {
+            Histogram histogram = latencies[type.ordinal()];
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            stats.addRequests(RequestStats.newBuilder()
+                    .setType(type.label)
+                    .setCount(histogram.getTotalCount())
+                    .setErrors(errors[type.ordinal()].sum())
+                    .setP50Latency(micros(histogram.getValueAtPercentile(50)))
+                    .setP99Latency(micros(histogram.getValueAtPercentile(99)))
+                    .setP999Latency(micros(histogram.getValueAtPercentile(99.9)))
+                    .setMaxLatency(micros(histogram.getMaxValue())));
+        }
+        return stats.setNodeCount(getNodeCount())
+                .setEdgeCount(getEdgeCount())
+                .setMemoryBytes(getMemoryBytes())
+                .setActiveConnections(getActiveConnections())
+                .setWalkQueueDepth(getWalkQueueDepth())
+                .setWalkWaitP99(getWalkWaitP99Micros())
+                .setQueryWaitP99(getQueryWaitP99Micros())
+                .setSnapshotBuilds(getSnapshotBuilds())
+                .setSnapshotWait(getSnapshotWaitMicros())
+                .setSettledNodes(getSettledNodes())
+                .setDroppedLogMessages(getDroppedLogMessages())
+                .setReplicas(getReplicaCount())
+                .setReplicationLag(getReplicationLag())
+                .setRejectedQueries(getRejectedQueries())
+                .setNamespaces(getNamespaceCount())
+                .build();
+    }
+
+    @Override
+    public Map<String, Long> getRequestCounts() {
+        return perType(Histogram::getTotalCount);
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (RequestType type : RequestType.values()) {
+            counts.put(type.label, errors[type.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP50Micros() {
+        return perType(histogram -> micros(histogram.getValueAtPercentile(50)));
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP99Micros() {
+        return perType(histogram -> micros(histogram.getValueAtPercentile(99)));
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP999Micros() {
+        return perType(histogram -> micros(histogram.getValueAtPercentile(99.9)));
+    }
+
+    @Override
+    public Map<String, Long> getLatencyMaxMicros() {
+        return perType(histogram -> micros(histogram.getMaxValue()));
+    }
+
+    @Override
+    public long getNodeCount() {
+        return graph.getNodeCount();
+    }
+
+    @Override
+    public long getEdgeCount() {
+        return graph.getEdgeCount();
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return graph.getMemoryBytes();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    @Override
+    public int getWalkQueueDepth() {
+        return walkIngestor.getQueueDepth();
+    }
+
+    @Override
+    public long getWalkWaitP99Micros() {
+        return micros(walkIngestor.getApplyWaits().getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getQueryWaitP99Micros() {
+        return micros(queryWaits.getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getSnapshotBuilds() {
+        return graph.getSnapshotBuilds();
+    }
+
+    @Override
+    public long getSnapshotWaitMicros() {
+        return micros(graph.getSnapshotWaitNanos());
+    }
+
+    @Override
+    public long getSettledNodes() {
+        return SearchSpace.getSettledNodes();
+    }
+
+    @Override
+    public long getDroppedLogMessages() {
+        return ServerLog.getDropped();
+    }
+
+    @Override
+    public int getReplicaCount() {
+        ReplicationStatus current = replication;
+        return current != null ? current.getReplicaCount() : 0;
+    }
+
+    @Override
+    public long getReplicationLag() {
+        ReplicationStatus current = replication;
+        return current != null ? current.getReplicationLag() : 0;
+    }
+
+    @Override
+    public long getRejectedQueries() {
+        return admission.getRejected();
+    }
+
+    @Override
+    public int getNamespaceCount() {
+        return namespaces.size();
+    }
+
+    private Map<String, Long> perType(ToLongFunction<Histogram> value) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (RequestType type : RequestType.values()) {
+            values.put(type.label, value.applyAsLong(latencies[type.ordinal()]));
+        }
+        return values;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
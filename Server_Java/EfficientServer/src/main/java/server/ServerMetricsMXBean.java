@@ -0,0 +1,50 @@
+package server;
+
+import java.util.Map;
+
+/**
+ * JMX view of the server metrics, the maps are keyed by the request type
+ */
+public interface ServerMetricsMXBean {
+    Map<String, Long> getRequestCounts();
+
+    Map<String, Long> getErrorCounts();
+
+    Map<String, Long> getLatencyP50Micros();
+
+    Map<String, Long> getLatencyP99Micros();
+
+    Map<String, Long> getLatencyP999Micros();
+
+    Map<String, Long> getLatencyMaxMicros();
+
+    long getNodeCount();
+
+    long getEdgeCount();
+
+    long getMemoryBytes();
+
+    int getActiveConnections();
+
+    int getWalkQueueDepth();
+
+    long getWalkWaitP99Micros();
+
+    long getQueryWaitP99Micros();
+
+    long getSnapshotBuilds();
+
+    long getSnapshotWaitMicros();
+
+    long getSettledNodes();
+
+    long getDroppedLogMessages();
+
+    int getReplicaCount();
+
+    long getReplicationLag();
+
+    long getRejectedQueries();
+
+    int getNamespaceCount();
+}
@@ -0,0 +1,254 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shortest path tree of one origin kept up to date between the snapshots by repairing only the affected nodes
+ * An edge that got shorter or was added lowers the distance of its destination and the lower distances are
+ * propagated with Dijkstra from there. A tree edge that got longer invalidates the subtree below it, every node of the
+ * subtree is seeded from its incoming edges outside the subtree and settled by the same propagation.
+ * The children of every node are kept in doubly linked sibling lists, so a subtree is found without scanning the tree.
+ * Not thread-safe, the caller holds the lock of the tree around every call
+ */
+final class ShortestPathTree {
+    private static final long UNREACHED = Long.MAX_VALUE;
+
+    final ReentrantLock lock = new ReentrantLock(); //Held while the tree is read or repaired, a recompute is a whole search
+    private final int origin;
+    private GraphSnapshot snapshot; //The snapshot the distances are exact for
+    private long[] distances;
+    private int[] parents; //Tree parent of every node, -1 for the origin and the unreached nodes
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    private int[] previousSiblings;
+    private long totalLength;
+    private IntMinHeap queue; //Empty between the calls, kept to avoid allocating it for every repair
+
+    /**
+     * Compute the tree of an origin from scratch (Dijkstra algorithm)
+     * @param snapshot - the snapshot to search
+     * @param origin - the id of the origin node, below the node count of the snapshot
+     */
+    ShortestPathTree(GraphSnapshot snapshot, int origin) {
+        this.origin = origin;
+        recompute(snapshot);
+    }
+
+    GraphSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return the sum of the shortest path lengths to every reachable node
+     */
+    long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Throw the tree away and compute it again on a snapshot
+     * @param newer - the snapshot to search
+     */
+    void recompute(GraphSnapshot newer) {
+        int nodeCount = newer.getNodeCount();
+        distances = new long[nodeCount];
+        parents = new int[nodeCount];
+        firstChildren = new int[nodeCount];
+        nextSiblings = new int[nodeCount];
+        previousSiblings = new int[nodeCount];
+        Arrays.fill(distances, UNREACHED);
+        Arrays.fill(parents, -1);
+        Arrays.fill(firstChildren, -1);
+        snapshot = newer;
+        totalLength = 0;
+        queue = new IntMinHeap(nodeCount);
+
+        distances[origin] = 0;
+        queue.insertOrDecrease(origin, 0);
+        propagate();
+    }
+
+    /**
+     * Bring the tree to a newer snapshot
+     * @param newer - the snapshot to repair the tree for
+     * @param changed - the keys of every edge that may differ between the current and the newer snapshot
+     */
+    void repair(GraphSnapshot newer, long[] changed) {
+        GraphSnapshot older = snapshot;
+        grow(newer.getNodeCount());
+        snapshot = newer;
+
+        //Collect the roots of the invalidated subtrees, the ends of the tree edges that got longer
+        int nodeCount = newer.getNodeCount();
+        int[] roots = new int[changed.length];
+        int rootCount = 0;
+        for (long key : changed) {
+            int source = (int) (key >>> 32);
+            int destination = (int) key;
+            if (source >= nodeCount || destination >= nodeCount) {
+                continue; //Edge of a Walk applied after the snapshot was read
+            }
+            int oldWeight = older.getWeight(source, destination);
+            int newWeight = newer.getWeight(source, destination);
+            if (oldWeight == newWeight) {
+                continue;
+            }
+            if (parents[destination] == source && (newWeight == -1 || newWeight > oldWeight)) {
+                roots[rootCount++] = destination;
+            }
+        }
+        int[] affected = invalidate(roots, rootCount);
+
+        //Seed every invalidated node from its incoming edges outside the invalidated subtrees
+        IntArray reverseOffsets = newer.getReverseOffsets();
+        IntArray reverseSources = newer.getReverseSources();
+        IntArray reverseWeights = newer.getReverseWeights();
+        for (int node : affected) {
+            for (int edge = reverseOffsets.get(node), last = reverseOffsets.get(node + 1); edge < last; edge++) {
+                lower(reverseSources.get(edge), node, reverseWeights.get(edge));
+            }
+        }
+        //Lower the ends of the edges that got shorter or were added, the other edges are ignored by lower
+        for (long key : changed) {
+            int source = (int) (key >>> 32);
+            int destination = (int) key;
+            int newWeight = source < nodeCount ? newer.getWeight(source, destination) : -1;
+            if (newWeight != -1) {
+                lower(source, destination, newWeight);
+            }
+        }
+        propagate();
+    }
+
+    /**
+     * Helper function to settle the queued nodes and relax their edges until the distances stop changing
+     */
+    private void propagate() {
+        IntArray offsets = snapshot.getOffsets();
+        IntArray targets = snapshot.getTargets();
+        IntArray weights = snapshot.getWeights();
+        long settled = 0;
+        while (!queue.isEmpty()) {
+            int current = queue.poll();
+            settled++;
+            for (int edge = offsets.get(current), last = offsets.get(current + 1); edge < last; edge++) {
+                lower(current, targets.get(edge), weights.get(edge));
+            }
+        }
+        SearchSpace.addSettledNodes(settled);
+    }
+
+    /**
+     * Helper function to relax one edge of the current snapshot, queueing its destination if it got closer
+     */
+    private void lower(int source, int destination, int weight) {
+        if (distances[source] == UNREACHED) {
+            return;
+        }
+        long distance = distances[source] + weight;
+        if (distance < distances[destination]) {
+            setDistance(destination, distance);
+            setParent(destination, source);
+            queue.insertOrDecrease(destination, distance);
+        }
+    }
+
+    /**
+     * Helper function to detach the subtrees below the roots and mark their nodes unreached
+     * @return the nodes of the subtrees
+     */
+    private int[] invalidate(int[] roots, int rootCount) {
+        int[] affected = new int[Math.max(rootCount, 16)];
+        int count = 0;
+        for (int r = 0; r < rootCount; r++) {
+            int root = roots[r];
+            if (distances[root] == UNREACHED) {
+                continue; //Already inside another invalidated subtree
+            }
+            setParent(root, -1);
+            int start = count;
+            if (count == affected.length) {
+                affected = Arrays.copyOf(affected, count * 2);
+            }
+            affected[count++] = root;
+            setDistance(root, UNREACHED);
+            //The list doubles as the stack of the traversal, every node is added once
+            for (int i = start; i < count; i++) {
+                for (int child = firstChildren[affected[i]]; child != -1; child = nextSiblings[child]) {
+                    if (count == affected.length) {
+                        affected = Arrays.copyOf(affected, count * 2);
+                    }
+                    affected[count++] = child;
+                    setDistance(child, UNREACHED);
+                }
+            }
+            for (int i = start; i < count; i++) {
+                setParent(affected[i], -1);
+            }
+        }
+        return Arrays.copyOf(affected, count);
+    }
+
+    private void setDistance(int node, long distance) {
+        if (distances[node] != UNREACHED) {
+            totalLength -= distances[node];
+        }
+        if (distance != UNREACHED) {
+            totalLength += distance;
+        }
+        distances[node] = distance;
+    }
+
+    /**
+     * Helper function to move a node under a new parent in the sibling lists
+     * @param parent - the new parent, -1 to detach the node
+     */
+    private void setParent(int node, int parent) {
+        int oldParent = parents[node];
+        if (oldParent == parent) {
+            return;
+        }
+        if (oldParent != -1) {
+            int previous = previousSiblings[node];
+            int next = nextSiblings[node];
+            if (previous != -1) {
+                nextSiblings[previous] = next;
+            } else {
+                firstChildren[oldParent] = next;
+            }
+            if (next != -1) {
+                previousSiblings[next] = previous;
+            }
+        }
+        parents[node] = parent;
+        if (parent != -1) {
+            int first = firstChildren[parent];
+            nextSiblings[node] = first;
+            previousSiblings[node] = -1;
+            if (first != -1) {
+                previousSiblings[first] = node;
+            }
+            firstChildren[parent] = node;
+        }
+    }
+
+    /**
+     * Helper function to extend the arrays with unreached nodes added since the last snapshot
+     */
+    private void grow(int nodeCount) {
+        int oldCount = distances.length;
+        if (nodeCount <= oldCount) {
+            return;
+        }
+        distances = Arrays.copyOf(distances, nodeCount);
+        parents = Arrays.copyOf(parents, nodeCount);
+        firstChildren = Arrays.copyOf(firstChildren, nodeCount);
+        nextSiblings = Arrays.copyOf(nextSiblings, nodeCount);
+        previousSiblings = Arrays.copyOf(previousSiblings, nodeCount);
+        Arrays.fill(distances, oldCount, nodeCount, UNREACHED);
+        Arrays.fill(parents, oldCount, nodeCount, -1);
+        Arrays.fill(firstChildren, oldCount, nodeCount, -1);
+        queue = new IntMinHeap(nodeCount);
+    }
+}
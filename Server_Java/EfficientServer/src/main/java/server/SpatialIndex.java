@@ -0,0 +1,293 @@
+package server;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Uniform grid of the node locations used to snap the received locations to the physical ones
+ * The cells are as wide as the snapping distance, so the nearest node within the distance is always in the 3x3 cells
+ * around the location. The cells are addressed by a packed long key in an open addressing table holding the last node
+ * added to the cell, and every node links to the previous node of its cell, so the index creates no object per cell
+ * or node and its tables can live off the heap (-Dserver.offHeap=true). A lookup does not allocate.
+ * Inserts take the write lock, lookups run under an optimistic read and retry under the read lock if a write interfered.
+ * A replaced table is left to the GC, an optimistic reader may still be reading it
+ */
+final class SpatialIndex {
+    private static final int INITIAL_CELL_CAPACITY = 1024;
+    private static final int INITIAL_NODE_CAPACITY = 1024;
+
+    private final int cellSize;
+    private final long distanceSquared;
+    private final StampedLock lock = new StampedLock();
+    private Nodes nodes = new Nodes(INITIAL_NODE_CAPACITY);
+    private Cells cells = new Cells(INITIAL_CELL_CAPACITY);
+    private volatile int size = 0;
+
+    /**
+     * Per-node tables indexed by node id, replaced as a whole when they grow
+     */
+    private static final class Nodes {
+        final LongArray coordinates; //Packed x and y of every node
+        final IntArray previous; //The node added to the same cell before, -1 for the first one
+
+        Nodes(int capacity) {
+            coordinates = LongArray.allocate(capacity);
+            previous = IntArray.allocate(capacity);
+        }
+
+        Nodes(Nodes old, int capacity) {
+            coordinates = old.coordinates.copyOf(capacity);
+            previous = old.previous.copyOf(capacity);
+        }
+    }
+
+    /**
+     * Open addressing table of the non-empty cells, replaced as a whole when it grows
+     */
+    private static final class Cells {
+        final LongArray keys;
+        final IntArray lastNodes; //The node added last to the cell, -1 for a free slot
+        int count = 0;
+
+        Cells(int capacity) {
+            keys = LongArray.allocate(capacity);
+            lastNodes = IntArray.allocate(capacity);
+            lastNodes.fill(-1);
+        }
+    }
+
+    /**
+     * @param distance - the snapping distance, a location is snapped to a node strictly closer than this
+     */
+    SpatialIndex(int distance) {
+        this.cellSize = distance;
+        this.distanceSquared = (long) distance * distance;
+    }
+
+    /**
+     * @return the number of nodes, the node ids are 0..size-1
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the size of the tables in bytes, including their free slots
+     */
+    long getMemoryBytes() {
+        long stamp = lock.readLock();
+        try {
+            return (long) nodes.coordinates.length() * (Long.BYTES + Integer.BYTES)
+                    + (long) cells.keys.length() * (Long.BYTES + Integer.BYTES);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Find the node nearest to a location
+     * @param x - the x coordinate of the location
+     * @param y - the y coordinate of the location
+     * @return the id of the nearest node within the snapping distance, -1 if there is none
+     */
+    int nearest(int x, int y) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int found = search(x, y);
+                if (lock.validate(stamp)) {
+                    return found;
+                }
+            } catch (IndexOutOfBoundsException e) {
+                //Inconsistent tables seen during a concurrent insert, retry under the read lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return search(x, y);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Snap a location to its node, adding a new node if there is none within the snapping distance
+     * @param x - the x coordinate of the location
+     * @param y - the y coordinate of the location
+     * @return the id of the node
+     */
+    int findOrAdd(int x, int y) {
+        int found = nearest(x, y);
+        if (found != -1) {
+            return found;
+        }
+        long stamp = lock.writeLock();
+        try {
+            found = search(x, y); //Another writer may have added it meanwhile
+            return found != -1 ? found : insert(x, y);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Add a node without snapping it, used to load a persisted graph where the nodes are stored in id order
+     * @param x - the x coordinate of the node
+     * @param y - the y coordinate of the node
+     * @return the id of the new node
+     */
+    int append(int x, int y) {
+        long stamp = lock.writeLock();
+        try {
+            return insert(x, y);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the packed coordinates (x in the high, y in the low 32 bits) of every node in id order
+     */
+    long[] getCoordinates() {
+        long stamp = lock.readLock();
+        try {
+            long[] coordinates = new long[size];
+            for (int node = 0; node < coordinates.length; node++) {
+                coordinates[node] = nodes.coordinates.get(node);
+            }
+            return coordinates;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param node - the node id
+     * @return the x coordinate of the node
+     */
+    int getX(int node) {
+        return (int) (readCoordinates(node) >> 32);
+    }
+
+    /**
+     * @param node - the node id
+     * @return the y coordinate of the node
+     */
+    int getY(int node) {
+        return (int) readCoordinates(node);
+    }
+
+    /**
+     * Remove every node, the ids start again from 0
+     */
+    void clear() {
+        long stamp = lock.writeLock();
+        try {
+            nodes = new Nodes(INITIAL_NODE_CAPACITY);
+            cells = new Cells(INITIAL_CELL_CAPACITY);
+            size = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private long readCoordinates(int node) {
+        long stamp = lock.readLock();
+        try {
+            return nodes.coordinates.get(node);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Helper function to find the nearest node in the 3x3 cells around a location
+     * Every table is read once into a local, so a concurrent insert can only cause a stale result or an index error.
+     * A node always links to a smaller id, so even a torn chain ends
+     */
+    private int search(int x, int y) {
+        Cells table = cells;
+        Nodes points = nodes;
+        int cellX = Math.floorDiv(x, cellSize);
+        int cellY = Math.floorDiv(y, cellSize);
+        long bestDistance = distanceSquared;
+        int best = -1;
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                int slot = findSlot(table, cellKey(cellX + dx, cellY + dy));
+                for (int node = table.lastNodes.get(slot); node >= 0; ) {
+                    long point = points.coordinates.get(node);
+                    long diffX = x - (int) (point >> 32);
+                    long diffY = y - (int) point;
+                    long distance = diffX * diffX + diffY * diffY;
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = node;
+                    }
+                    int previous = points.previous.get(node);
+                    node = previous < node ? previous : -1;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Helper function to add a node, the caller holds the write lock
+     * @return the id of the new node
+     */
+    private int insert(int x, int y) {
+        int node = size;
+        if (node == nodes.coordinates.length()) {
+            nodes = new Nodes(nodes, node * 2);
+        }
+        if ((cells.count + 1) * 2 > cells.keys.length()) {
+            cells = rehash(cells);
+        }
+        long key = cellKey(Math.floorDiv(x, cellSize), Math.floorDiv(y, cellSize));
+        int slot = findSlot(cells, key);
+        int last = cells.lastNodes.get(slot);
+        if (last == -1) {
+            cells.keys.set(slot, key);
+            cells.count++;
+        }
+        nodes.coordinates.set(node, ((long) x << 32) | (y & 0xFFFFFFFFL));
+        nodes.previous.set(node, last);
+        cells.lastNodes.set(slot, node);
+        size = node + 1; //Publish the node after it is in the cell
+        return node;
+    }
+
+    private static Cells rehash(Cells old) {
+        Cells grown = new Cells(old.keys.length() * 2);
+        for (int slot = 0, capacity = old.keys.length(); slot < capacity; slot++) {
+            int last = old.lastNodes.get(slot);
+            if (last != -1) {
+                int newSlot = findSlot(grown, old.keys.get(slot));
+                grown.keys.set(newSlot, old.keys.get(slot));
+                grown.lastNodes.set(newSlot, last);
+                grown.count++;
+            }
+        }
+        return grown;
+    }
+
+    /**
+     * Helper function to find the slot of a cell with linear probing
+     * @return the slot holding the key, or the free slot where it would be inserted
+     */
+    private static int findSlot(Cells table, long key) {
+        int mask = table.keys.length() - 1;
+        int slot = (int) EdgeStore.mix(key) & mask;
+        for (int probe = 0; probe <= mask; probe++) {
+            if (table.lastNodes.get(slot) == -1 || table.keys.get(slot) == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot; //Only reachable on a torn read, the caller's result is discarded by the validation
+    }
+
+    private static long cellKey(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+}
@@ -1,27 +1,47 @@
 package server;
 import server.proto.*;
 
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
 import java.io.*;
+import java.lang.reflect.Method;
 import java.net.*;
-import java.nio.ByteBuffer;
 import java.util.concurrent.*;
 import java.util.*;
-import java.util.concurrent.locks.*;
+import java.util.function.Supplier;
 
 
 public class TCPServer {
-    private static final int PORT = 12345; //Define the port number for the server
-    private static final Graph graph = new Graph();
-    private static final ExecutorService clientHandlerPool = Executors.newFixedThreadPool(100); //Allocating a thread pool of 100 threads for handling client connections
-
-    //Synchronization primitives for managing request concurrency
-    private static final Lock lock = new ReentrantLock();
-    private static final Condition condition = lock.newCondition();
-    private static int activeProcessWalks = 0;
-    private static boolean oneToOperationInProgress = false;
+    private static final int PORT = Integer.getInteger("server.port", 12345); //Define the port number for the server
+    private static final Graph defaultGraph = new Graph(); //Graph of the default namespace, persisted and replicated
+    private static final WalkIngestor defaultWalkIngestor = new WalkIngestor(defaultGraph); //Single writer applying the Walks in batches
+    private static final Namespaces namespaces = new Namespaces(defaultGraph, defaultWalkIngestor); //Isolated graphs selected by the requests
+    private static final AdmissionControl admission = new AdmissionControl(); //Lanes of the OneTo* requests
+    private static final ServerMetrics metrics = new ServerMetrics(defaultGraph, defaultWalkIngestor, admission, namespaces);
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor(); //Null unless every connection runs on its own virtual thread
+    private static final ExecutorService clientHandlerPool = newConnectionExecutor(() -> Executors.newFixedThreadPool(100)); //Allocating a thread pool of 100 threads for handling client connections
+    private static final boolean NIO_MODE = Boolean.getBoolean("server.nio"); //Serve the clients with the non-blocking front end
+    private static final int NIO_SELECTORS = Integer.getInteger("server.nio.selectors", 2);
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024; //Buffer of the coded streams of a connection
+    private static final int PIPELINE_DEPTH = Integer.getInteger("server.pipelineDepth", 64); //Requests in flight per connection
+    private static final ExecutorService responseWriterPool = newConnectionExecutor(Executors::newCachedThreadPool); //One response writer per connection
+    private static final CompletableFuture<Response> END_OF_STREAM = CompletableFuture.completedFuture(null);
+    private static final int REPLICATION_PORT = Integer.getInteger("server.replicationPort", 0); //Primary: port of the replicas, 0 = off
+    private static final String REPLICA_OF = System.getProperty("server.replicaOf", ""); //Replica: host:port of the primary
 
     public static void main(String[] args) {
         System.out.println("Server started...");
+        metrics.register();
+        startReplication();
+        if (NIO_MODE) {
+            try {
+                new NioServer(PORT, namespaces, metrics, NIO_SELECTORS, admission).run();
+            } catch (IOException e) {
+                System.out.println("Server error: " + e.getMessage());
+            }
+            return;
+        }
         try (ServerSocket serverSocket = new ServerSocket(PORT)) {
             //Check for incoming connections constantly
             while (true) {
@@ -33,73 +53,190 @@ public class TCPServer {
         }
     }
 
+    /**
+     * Look up the virtual thread executor factory if -Dserver.virtualThreads=true
+     * The JDK 21 factory is looked up reflectively, so the server still builds and runs on JDK 17 with the thread pools
+     * @return the factory method, null in the default mode or when the JDK has no virtual threads
+     */
+    private static Method findVirtualThreadExecutor() {
+        if (!Boolean.getBoolean("server.virtualThreads")) {
+            return null;
+        }
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            ServerLog.log("Virtual threads need JDK 21, serving the connections with the thread pool");
+            return null;
+        }
+    }
+
+    /**
+     * Create the executor of the connection handlers and the response writers
+     * In the virtual thread mode every task gets its own virtual thread, so thousands of connections keep the blocking
+     * reads and writes without a platform thread each. The blocking paths of a connection (the socket, the response
+     * queue, the futures of the pipeline) park without pinning the carrier thread, and the graph is guarded only by
+     * ReentrantLocks and StampedLocks, no monitor is held by a query
+     * @param pooled - the executor used in the default mode
+     */
+    private static ExecutorService newConnectionExecutor(Supplier<ExecutorService> pooled) {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR == null) {
+            return pooled.get();
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            ServerLog.log("Error creating the virtual thread executor: " + e.getMessage());
+            return pooled.get();
+        }
+    }
+
+    /**
+     * Start the replication if this server is a primary or a replica
+     * A replica follows the primary's graph and answers only the OneTo* and Stats requests
+     * Only the default namespace is replicated, the requests for the other namespaces are rejected on both sides
+     */
+    private static void startReplication() {
+        if (!REPLICA_OF.isEmpty()) {
+            ReplicationReplica replica = new ReplicationReplica(REPLICA_OF, defaultGraph, defaultWalkIngestor);
+            metrics.setReplication(replica);
+            replica.start();
+        } else if (REPLICATION_PORT != 0) {
+            ReplicationPrimary primary = new ReplicationPrimary(REPLICATION_PORT, defaultGraph, defaultWalkIngestor);
+            try {
+                primary.start();
+                metrics.setReplication(primary);
+            } catch (IOException e) {
+                ServerLog.log("Replication error: " + e.getMessage());
+            }
+        }
+    }
+
     /**
      * Handle a client from reading the request, processing it, constructing a response message and sending it back
      * Closing the socket when the client the connection
+     * The requests are pipelined: the next frame is read while the previous requests are still processed, with the same
+     * results as if they were processed one by one, and a writer thread sends the responses strictly in the request order.
+     * At most PIPELINE_DEPTH requests are in flight, reading stops until the oldest response is sent
      * @param clientSocket - the allocated socket to the current client
      */
     private static void handleClient(Socket clientSocket) {
         //System.out.println("Client connected");
+        metrics.connectionOpened();
         try (InputStream in = clientSocket.getInputStream(); OutputStream out = clientSocket.getOutputStream()) {
-            while (true) {
-                //Read the length of the message
-                byte[] lengthBytes = new byte[4];
-                if (in.readNBytes(lengthBytes, 0, 4) != 4) {
-                    //System.out.println("Zero read");
-                    break;
-                }
-                int length = ByteBuffer.wrap(lengthBytes).getInt();
+            CodedInputStream input = CodedInputStream.newInstance(in, STREAM_BUFFER_SIZE);
+            BlockingQueue<CompletableFuture<Response>> responses = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+            Future<?> writer = responseWriterPool.submit(() -> writeResponses(responses, out));
+            RequestPipeline pipeline = new RequestPipeline(namespaces, admission, metrics);
+            try {
+                while (!input.isAtEnd()) {
+                    //Read the big-endian length of the message
+                    int length = Integer.reverseBytes(input.readRawLittleEndian32());
 
-                //Read the actual message
-                byte[] messageBytes = new byte[length];
-                if (in.readNBytes(messageBytes, 0, length) != length) {
-                    throw new Exception("Can't read enough bytes from the stream");
-                }
+                    //Parse the protobuf message within its length
+                    int oldLimit = input.pushLimit(length);
+                    Request request = Request.parseFrom(input);
+                    input.popLimit(oldLimit);
+                    input.resetSizeCounter(); //The size limit applies to one message, not to the whole connection
 
-                Request request = Request.parseFrom(messageBytes); //Parse the read in protobuf message
-                Response response = processRequest(request); //Process the message based on its type
-                byte[] responseBytes = response.toByteArray();
-                try{
-                    //Write back the response to the client
-                    out.write(ByteBuffer.allocate(4).putInt(responseBytes.length).array());
-                    out.write(responseBytes);
-                    out.flush();
-                    //System.out.println("Response sent: " + response.toString());
-                }
-                catch(IOException e){
-                    System.out.println("Response error: " + e.getMessage());
-                    break;
+                    responses.put(pipeline.process(request)); //Blocks while too many requests are in flight
                 }
+            } finally {
+                //Send the responses of the requests read so far before the socket is closed
+                responses.put(END_OF_STREAM);
+                writer.get();
             }
         } catch (Exception e) {
-            System.out.println("Client error: " + e.getMessage());
+            ServerLog.log("Client error: " + e.getMessage());
         }
         finally {
             try {
                 clientSocket.close();
             } catch (IOException e) {
-                System.out.println("Error closing socket: " + e.getMessage());
+                ServerLog.log("Error closing socket: " + e.getMessage());
             }
+            metrics.connectionClosed();
             //System.out.println("Client disconnected");
         }
     }
 
+    /**
+     * Writer thread of a connection: send the responses in the order they were queued
+     * The coded output stream is flushed only when the next response is not ready yet, so the responses
+     * completed together leave in one write
+     * @param responses - the response futures in the request order, ended by END_OF_STREAM
+     * @param out - the output stream of the socket
+     */
+    private static void writeResponses(BlockingQueue<CompletableFuture<Response>> responses, OutputStream out) {
+        CodedOutputStream output = CodedOutputStream.newInstance(out, STREAM_BUFFER_SIZE);
+        boolean failed = false; //After a write error the responses are only drained
+        try {
+            while (true) {
+                CompletableFuture<Response> next = responses.poll();
+                if (next == null || !next.isDone()) {
+                    failed = flush(output, failed);
+                    if (next == null) {
+                        next = responses.take();
+                    }
+                }
+                if (next == END_OF_STREAM) {
+                    flush(output, failed);
+                    return;
+                }
+                Response response = next.join();
+                if (failed) {
+                    continue;
+                }
+                try{
+                    //Write back the length and the response to the client
+                    output.writeFixed32NoTag(Integer.reverseBytes(response.getSerializedSize()));
+                    response.writeTo(output);
+                    //System.out.println("Response sent: " + response.toString());
+                }
+                catch(IOException e){
+                    ServerLog.log("Response error: " + e.getMessage());
+                    failed = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            ServerLog.log("Response writer interrupted");
+        }
+    }
+
+    /**
+     * Helper function to flush the buffered responses
+     * @return whether the connection failed
+     */
+    private static boolean flush(CodedOutputStream output, boolean failed) {
+        if (failed) {
+            return true;
+        }
+        try {
+            output.flush();
+            return false;
+        } catch (IOException e) {
+            ServerLog.log("Response error: " + e.getMessage());
+            return true;
+        }
+    }
+
     /**
      * Handling every request message based on the request type
+     * @param namespace - the namespace of the request
      * @param request - the received request parsed from the protobuf message
      * @return the constructed response protobuf message
      */
-    private static Response processRequest(Request request) {
+    static Response processRequest(Namespaces.Namespace namespace, Request request) {
+        Graph graph = namespace.graph;
         Response.Builder responseBuilder = Response.newBuilder();
         try{
             //Handling Walk requests
             if (request.hasWalk()) {
                 //System.out.println("Walk request received");
                 try{
-                    processWalk(request.getWalk());
+                    processWalk(namespace.walkIngestor, request.getWalk());
                     responseBuilder.setStatus(Response.Status.OK);
                 }catch(Exception e){
-                    System.out.println("Walk error: " + e.getMessage());
+                    ServerLog.log("Walk error: " + e.getMessage());
                     responseBuilder.setStatus(Response.Status.ERROR).setErrMsg(e.getMessage());
                 }
 
@@ -107,7 +244,7 @@ public class TCPServer {
             } else if (request.hasOneToOne()) {
                 //System.out.println("OneToOne request received");
                 try {
-                    long length = processOneToOne(request.getOneToOne());
+                    long length = processOneToOne(graph, request.getOneToOne());
                     if(length != -1){
                         responseBuilder.setStatus(Response.Status.OK).setShortestPathLength(length);
                     }
@@ -116,7 +253,7 @@ public class TCPServer {
                         responseBuilder.setStatus(Response.Status.ERROR).setErrMsg("Can't compute shortest path");
                     }
                 }catch(Exception e){
-                    System.out.println("OneToOne error: " + e.getMessage());
+                    ServerLog.log("OneToOne error: " + e.getMessage());
                     responseBuilder.setStatus(Response.Status.ERROR).setErrMsg(e.getMessage());
                 }
 
@@ -124,7 +261,7 @@ public class TCPServer {
             } else if (request.hasOneToAll()) {
                 //System.out.println("OneToAll request received");
                 try {
-                    long totalLength = processOneToAll(request.getOneToAll());
+                    long totalLength = processOneToAll(graph, request.getOneToAll());
                     if(totalLength != -1){
                         responseBuilder.setStatus(Response.Status.OK).setTotalLength(totalLength);
                     }
@@ -132,27 +269,44 @@ public class TCPServer {
                         responseBuilder.setStatus(Response.Status.ERROR).setErrMsg("Can't compute total length");
                     }
                 }catch(Exception e){
-                    System.out.println("OneToAll error: " + e.getMessage());
+                    ServerLog.log("OneToAll error: " + e.getMessage());
+                    responseBuilder.setStatus(Response.Status.ERROR).setErrMsg(e.getMessage());
+                }
+
+            //Handling BatchQuery requests
+            } else if (request.hasBatch()) {
+                try {
+                    responseBuilder.setStatus(Response.Status.OK).setBatch(processBatch(graph, request.getBatch()));
+                }catch(Exception e){
+                    ServerLog.log("BatchQuery error: " + e.getMessage());
                     responseBuilder.setStatus(Response.Status.ERROR).setErrMsg(e.getMessage());
                 }
 
             //Handling Reset requests
             } else if (request.hasReset()) {
-                System.out.println("Reset request received");
+                ServerLog.log("Reset request received");
                 try {
-                    graph.reset();
+                    namespace.walkIngestor.submitReset().get(); //Ordered with the queued Walks
                     responseBuilder.setStatus(Response.Status.OK);
                 }
                 catch(Exception e){
-                    System.out.println("Reset error: " + e.getMessage());
+                    ServerLog.log("Reset error: " + e.getMessage());
                     responseBuilder.setStatus(Response.Status.ERROR).setErrMsg(e.getMessage());
                 }
+            //Handling Stats requests
+            } else if (request.hasStats()) {
+                ServerStats stats = metrics.toProto();
+                if (!namespace.isDefault()) {
+                    stats = stats.toBuilder().setNodeCount(graph.getNodeCount()).setEdgeCount(graph.getEdgeCount())
+                            .setMemoryBytes(graph.getMemoryBytes()).build();
+                }
+                responseBuilder.setStatus(Response.Status.OK).setStats(stats);
             } else {
                 responseBuilder.setStatus(Response.Status.ERROR).setErrMsg("Unknown request type");
             }
         }catch(Exception e)
         {
-            System.out.println("Error during processing request: " + e.getMessage());
+            ServerLog.log("Error during processing request: " + e.getMessage());
         }
 
         return responseBuilder.build();
@@ -161,78 +315,37 @@ public class TCPServer {
 
     /**
      * --- Handle Walk requests ---
-     * Multiple Walk requests can be handled simultaneously, but can't start the process of a new one
-     * until a received OneTo* request is finished
-     * @param walk - the received OneToAll request
+     * The Walk is queued to the single writer that applies the Walks in batches, and the handler waits until its batch
+     * is applied, so the Walk is visible to every OneTo* request arriving after its response was sent
+     * The Walk requests are never blocked by the OneTo* requests
+     * @param walkIngestor - the single writer of the namespace of the request
+     * @param walk - the received Walk request
      */
-    private static void processWalk(Walk walk) {
-        lock.lock();
-        try{
-            while(oneToOperationInProgress) {
-                condition.await(); //Wait until the ongoing OnTo* request handling is finished
-            }
-            activeProcessWalks++;
-        }catch(InterruptedException e){
-            System.out.println("Handling Walk request interrupted");
-            Thread.currentThread().interrupt();
-        }finally{
-            lock.unlock();
-        }
-
+    private static void processWalk(WalkIngestor walkIngestor, Walk walk) throws IOException {
         try {
-            //Get all the locations and lengths from the request
-            List<Location> locations = walk.getLocationsList();
-            List<Integer> lengths = walk.getLengthsList();
-
-            for (int i = 0; i < locations.size() - 1; i++) {
-                Location from = locations.get(i);
-                Location to = locations.get(i + 1);
-                int length = lengths.get(i);
-                graph.addEdge(from, to, length);
+            walkIngestor.submitWalk(walk).get();
+        }
+        catch(ExecutionException e){
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause(); //Not logged, so not applied either
             }
+            ServerLog.log("Error during Walk request processing: " + e.getMessage());
         }
         catch(Exception e){
-            System.out.println("Error during Walk request processing: " + e.getMessage());
-        }
-        finally {
-            lock.lock();
-            try {
-                activeProcessWalks--;
-                if (activeProcessWalks == 0) {
-                    condition.signalAll();
-                }
-            }
-            catch(Exception e){
-                System.out.println("Handling Walk request interrupted during unlocking: " + e.getMessage());
-            }
-            finally {
-                lock.unlock();
-            }
+            ServerLog.log("Error during Walk request processing: " + e.getMessage());
         }
     }
 
 
     /**
      * --- Handle OneToOne requests ---
-     * Multiple OneTo* requests can be handled simultaneously, but they have to wait until all the
-     * ongoing Walk requests are finished to guarantee a synchronized state
+     * Multiple OneTo* requests can be handled simultaneously, they run on the latest published snapshot of the graph
+     * that contains every Walk acknowledged before the request arrived, so they don't block the Walk requests
+     * @param graph - the graph of the namespace of the request
      * @param request - the received OneToOne request
      * @return the length of the calculated shortest path, -1 upon error
      */
-    private static long processOneToOne(OneToOne request) {
-        lock.lock();
-        try {
-            while (activeProcessWalks > 0) {
-                condition.await(); //Wait until the ongoing Walk request handlers are finished
-            }
-            oneToOperationInProgress = true; //Block the handling of new Walk requests
-        } catch (InterruptedException e) {
-            System.out.println("Handling OneToOne request interrupted");
-            Thread.currentThread().interrupt();
-        } finally {
-            lock.unlock();
-        }
-
+    private static long processOneToOne(Graph graph, OneToOne request) {
         try {
             Location src = request.getOrigin();
             Location dest = request.getDestination();
@@ -245,21 +358,7 @@ public class TCPServer {
             return graph.computeShortestPath(physicalSrc, physicalDest);
         }
         catch(Exception e){
-            System.out.println("Error during OneToOne request processing: " + e.getMessage());
-        }
-
-        finally {
-            lock.lock();
-            try {
-                oneToOperationInProgress = false;
-                condition.signalAll();
-            }
-            catch(Exception e){
-                System.out.println("Handling OneToOne request interrupted during unlocking: " + e.getMessage());
-            }
-            finally {
-                lock.unlock();
-            }
+            ServerLog.log("Error during OneToOne request processing: " + e.getMessage());
         }
 
         return -1;
@@ -268,25 +367,13 @@ public class TCPServer {
 
     /**
      * --- Handle OneToAll requests ---
-     * Multiple OneTo* requests can be handled simultaneously, but they have to wait until all the
-     * ongoing Walk requests are finished to guarantee a synchronized state
+     * Multiple OneTo* requests can be handled simultaneously, they run on the latest published snapshot of the graph
+     * that contains every Walk acknowledged before the request arrived, so they don't block the Walk requests
+     * @param graph - the graph of the namespace of the request
      * @param request - the received OneToAll request
      * @return the sum of path lengths to every location from a specified origin, -1 upon error
      */
-    private static long processOneToAll(OneToAll request) {
-
-        lock.lock();
-        try {
-            while (activeProcessWalks > 0) {
-                condition.await(); //Wait until the ongoing Walk request handlers are finished
-            }
-            oneToOperationInProgress = true; //Block the handling of new Walk requests
-        } catch (InterruptedException e) {
-            System.out.println("Handling OneToAll request interrupted");
-        } finally {
-            lock.unlock();
-        }
-
+    private static long processOneToAll(Graph graph, OneToAll request) {
         try {
             Location src = request.getOrigin();
             Location physicalSrc = graph.getCorrespondingLocation(src);
@@ -296,22 +383,87 @@ public class TCPServer {
             return graph.computeTotalLength(physicalSrc);
         }
         catch(Exception e){
-            System.out.println("Error during OneToAll request processing: " + e.getMessage());
+            ServerLog.log("Error during OneToAll request processing: " + e.getMessage());
         }
-        finally {
-            lock.lock();
-            try {
-                oneToOperationInProgress = false;
-                condition.signalAll();
+
+        return -1;
+    }
+
+
+    /**
+     * --- Handle BatchQuery requests ---
+     * The OneToOne queries are grouped by their snapped origin,
+     * every group is answered by one search that stops once all its destinations are settled. A OneToAll origin
+     * repeated in the batch is computed once. The searches run one after another on the thread of the expensive
+     * lane, so a batch takes no more threads than a OneToAll, and all of them run on one snapshot of the graph
+     * @param graph - the graph of the namespace of the request
+     * @param batch - the received BatchQuery request
+     * @return the result of every query, in the order of the queries
+     */
+    private static BatchResult processBatch(Graph graph, BatchQuery batch) {
+        GraphSnapshot snapshot = graph.getSnapshot();
+        List<OneToOne> oneToOnes = batch.getOneToOneList();
+        long[] shortestPaths = new long[oneToOnes.size()];
+        Arrays.fill(shortestPaths, -1);
+        Map<Location, List<Integer>> groups = new HashMap<>(); //Snapped origin -> indices of its queries
+        List<Location> destinations = new ArrayList<>(oneToOnes.size());
+        for (int i = 0; i < oneToOnes.size(); i++) {
+            Location physicalSrc = graph.getCorrespondingLocation(oneToOnes.get(i).getOrigin());
+            Location physicalDest = graph.getCorrespondingLocation(oneToOnes.get(i).getDestination());
+            destinations.add(physicalDest);
+            if (physicalSrc != null && physicalDest != null) {
+                groups.computeIfAbsent(physicalSrc, origin -> new ArrayList<>()).add(i);
+            }
+        }
+        for (Map.Entry<Location, List<Integer>> group : groups.entrySet()) {
+            List<Integer> indices = group.getValue();
+            if (indices.size() == 1) {
+                int index = indices.get(0);
+                shortestPaths[index] = graph.computeShortestPath(snapshot, group.getKey(), destinations.get(index)); //A single pair may be answered by the contraction hierarchy
+                continue;
             }
-            catch(Exception e){
-                System.out.println("Handling OneToAll request interrupted during unlocking: " + e.getMessage());
+            List<Location> ends = new ArrayList<>(indices.size());
+            for (int index : indices) {
+                ends.add(destinations.get(index));
             }
-            finally {
-                lock.unlock();
+            long[] lengths = graph.computeShortestPaths(snapshot, group.getKey(), ends);
+            for (int i = 0; i < lengths.length; i++) {
+                shortestPaths[indices.get(i)] = lengths[i];
             }
         }
 
-        return -1;
+        List<OneToAll> oneToAlls = batch.getOneToAllList();
+        Map<Location, Long> totalLengths = new HashMap<>();
+        List<Location> origins = new ArrayList<>(oneToAlls.size());
+        for (OneToAll oneToAll : oneToAlls) {
+            Location physicalSrc = graph.getCorrespondingLocation(oneToAll.getOrigin());
+            origins.add(physicalSrc);
+            if (physicalSrc != null) {
+                totalLengths.put(physicalSrc, -1L);
+            }
+        }
+        for (Map.Entry<Location, Long> totalLength : totalLengths.entrySet()) {
+            totalLength.setValue(graph.computeTotalLength(snapshot, totalLength.getKey()));
+        }
+
+        BatchResult.Builder result = BatchResult.newBuilder();
+        for (long length : shortestPaths) {
+            result.addOneToOne(queryResult(length));
+        }
+        for (Location origin : origins) {
+            result.addOneToAll(queryResult(origin == null ? -1 : totalLengths.get(origin)));
+        }
+        return result.build();
+    }
+
+    /**
+     * Helper function to build the result of one query of a batch
+     * @param length - the computed length, -1 upon error
+     */
+    private static QueryResult queryResult(long length) {
+        if (length == -1) {
+            return QueryResult.newBuilder().setStatus(Response.Status.ERROR).build();
+        }
+        return QueryResult.newBuilder().setStatus(Response.Status.OK).setLength(length).build();
     }
 }
@@ -0,0 +1,325 @@
+package server;
+import server.proto.*;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Single-writer ingestion stage of the graph updates
+ * The request handlers only enqueue the decoded Walks, a dedicated applier thread drains the queue and applies
+ * the Walks in batches, so the edge store and the hash grid are written by one thread without contention.
+ * A Walk is acknowledged only after its whole batch is applied and visible to the queries.
+ * Resets go through the same queue, so they are ordered with the Walks around them.
+ * With a data directory (-Dserver.dataDir) the Walks are logged before they are applied and the graph is recovered
+ * from the directory at startup, see WalkLog. A batch that cannot be logged is not applied, its Walks fail with an
+ * IOException and are answered with an ERROR
+ */
+public class WalkIngestor {
+    private static final int QUEUE_CAPACITY = Integer.getInteger("server.walkQueueCapacity", 4096);
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("server.walkBatchSize", 256);
+    private static final String DATA_DIRECTORY = System.getProperty("server.dataDir", "");
+
+    private final Graph graph;
+    private final BlockingQueue<Update> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ConcurrentLinkedQueue<CompletableFuture<Void>> spaceWaiters = new ConcurrentLinkedQueue<>(); //Completed once the applier drained the queue
+    private final Histogram applyWaits = new ConcurrentHistogram(3); //Nanoseconds from queueing a Walk until it is applied
+    private final WalkLog log; //Null without a data directory
+    private final Thread applier;
+    private volatile Listener listener = null;
+    private volatile boolean closed = false;
+
+    /**
+     * Receiver of the applied changes, called on the applier thread in the order the changes were applied
+     */
+    interface Listener {
+        /**
+         * @param walks - the Walks of a batch applied to the graph, only valid during the call
+         */
+        void walksApplied(List<Walk> walks);
+
+        void graphReset();
+    }
+
+    /**
+     * One queued change of the graph, a Walk, a task, or a reset if both are null
+     */
+    private static final class Update {
+        final Walk walk;
+        final Runnable task;
+        final CompletableFuture<Void> applied = new CompletableFuture<>();
+        final long queued = System.nanoTime();
+
+        Update(Walk walk, Runnable task) {
+            this.walk = walk;
+            this.task = task;
+        }
+    }
+
+    /**
+     * @param graph - the graph the updates are applied to, persisted in the server.dataDir directory if it is set
+     */
+    public WalkIngestor(Graph graph) {
+        this(graph, DATA_DIRECTORY.isEmpty() ? null : Paths.get(DATA_DIRECTORY));
+    }
+
+    /**
+     * @param graph - the graph the updates are applied to
+     * @param dataDirectory - the directory the graph is recovered from and the Walks are logged to, null to keep
+     *                      the graph only in memory
+     */
+    public WalkIngestor(Graph graph, Path dataDirectory) {
+        this(graph, dataDirectory, true);
+    }
+
+    /**
+     * @param graph - the graph the updates are applied to
+     * @param dataDirectory - the directory of the log, null to keep the graph only in memory
+     * @param start - whether to start the applier thread now, otherwise the updates wait until start is called
+     */
+    WalkIngestor(Graph graph, Path dataDirectory, boolean start) {
+        this.graph = graph;
+        if (dataDirectory != null) {
+            log = new WalkLog(dataDirectory, graph);
+            try {
+                log.recover();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot recover the graph from " + dataDirectory, e);
+            }
+        } else {
+            log = null;
+        }
+        applier = new Thread(this::applyUpdates, "walk-applier");
+        applier.setDaemon(true);
+        if (start) {
+            applier.start();
+        }
+    }
+
+    /**
+     * Start the applier thread of an ingestor created without it
+     */
+    void start() {
+        applier.start();
+    }
+
+    /**
+     * Queue a Walk, blocks while the queue is full
+     * @param walk - the received Walk
+     * @return a future completed when the Walk is applied and visible to the queries
+     */
+    public CompletableFuture<Void> submitWalk(Walk walk) throws InterruptedException {
+        if (walk.getLengthsCount() < walk.getLocationsCount() - 1) {
+            throw new IllegalArgumentException("Walk has fewer lengths than edges");
+        }
+        return enqueue(new Update(walk, null));
+    }
+
+    /**
+     * Queue a reset of the graph, it is applied after every Walk queued before it
+     * @return a future completed when the graph is reset
+     */
+    public CompletableFuture<Void> submitReset() throws InterruptedException {
+        return enqueue(new Update(null, null));
+    }
+
+    /**
+     * Queue a Walk without blocking, used where a full queue must not stall the thread (the selector threads)
+     * @param walk - the received Walk
+     * @return a future completed when the Walk is applied, null if the queue is full (see whenQueueHasSpace)
+     */
+    CompletableFuture<Void> offerWalk(Walk walk) {
+        if (walk.getLengthsCount() < walk.getLocationsCount() - 1) {
+            throw new IllegalArgumentException("Walk has fewer lengths than edges");
+        }
+        return offer(new Update(walk, null));
+    }
+
+    /**
+     * Queue a reset without blocking
+     * @return a future completed when the graph is reset, null if the queue is full (see whenQueueHasSpace)
+     */
+    CompletableFuture<Void> offerReset() {
+        return offer(new Update(null, null));
+    }
+
+    /**
+     * @return a future completed on the applier thread once the queue has space again, the callbacks must not block
+     */
+    CompletableFuture<Void> whenQueueHasSpace() {
+        CompletableFuture<Void> space = new CompletableFuture<>();
+        spaceWaiters.offer(space);
+        if (queue.remainingCapacity() > 0) {
+            notifySpaceWaiters(); //Drained before the waiter was added
+        }
+        return space;
+    }
+
+    /**
+     * Queue a task to run on the applier thread between the Walks queued before and after it,
+     * so it sees the graph without a partially applied batch
+     * @param task - the task, it must not block
+     * @return a future completed when the task ran
+     */
+    CompletableFuture<Void> submitTask(Runnable task) throws InterruptedException {
+        return enqueue(new Update(null, task));
+    }
+
+    /**
+     * Stop the applier thread, the updates still queued are never applied
+     */
+    void close() {
+        closed = true;
+        applier.interrupt();
+    }
+
+    /**
+     * @param listener - the receiver of the changes applied from now on, replacing the previous one
+     */
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the number of Walks and resets waiting to be applied
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the histogram of the time from queueing a Walk until it is applied [ns]
+     */
+    public Histogram getApplyWaits() {
+        return applyWaits;
+    }
+
+    private CompletableFuture<Void> enqueue(Update update) throws InterruptedException {
+        queue.put(update);
+        return update.applied;
+    }
+
+    private CompletableFuture<Void> offer(Update update) {
+        return queue.offer(update) ? update.applied : null;
+    }
+
+    private void notifySpaceWaiters() {
+        CompletableFuture<Void> space;
+        while ((space = spaceWaiters.poll()) != null) {
+            space.complete(null);
+        }
+    }
+
+    /**
+     * Main loop of the applier thread: apply the consecutive Walks in one batch, and the resets and tasks between them one by one
+     */
+    private void applyUpdates() {
+        List<Update> drained = new ArrayList<>(MAX_BATCH_SIZE);
+        List<Update> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        List<Walk> walks = new ArrayList<>(MAX_BATCH_SIZE);
+        while (true) {
+            try {
+                drained.add(queue.take());
+                queue.drainTo(drained, MAX_BATCH_SIZE - 1);
+                notifySpaceWaiters();
+                for (Update update : drained) {
+                    if (update.walk != null) {
+                        batch.add(update);
+                        walks.add(update.walk);
+                        continue;
+                    }
+                    applyBatch(batch, walks);
+                    try {
+                        if (update.task != null) {
+                            update.task.run();
+                        } else {
+                            reset();
+                        }
+                        update.applied.complete(null);
+                    } catch (Exception e) {
+                        update.applied.completeExceptionally(e);
+                    }
+                }
+                applyBatch(batch, walks);
+                drained.clear();
+            } catch (InterruptedException e) {
+                if (!closed) {
+                    ServerLog.log("Walk applier interrupted");
+                }
+                return;
+            }
+        }
+    }
+
+    private void reset() throws IOException {
+        if (log != null) {
+            log.reset();
+        }
+        graph.reset();
+        Listener current = listener;
+        if (current != null) {
+            current.graphReset();
+        }
+    }
+
+    /**
+     * Helper function to apply the collected Walks and acknowledge them
+     * @param batch - the queued updates of the Walks, emptied by the call
+     * @param walks - the Walks of the updates, emptied by the call
+     */
+    private void applyBatch(List<Update> batch, List<Walk> walks) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (log != null) {
+            try {
+                log.append(walks);
+            } catch (IOException e) {
+                //An acknowledged Walk must survive a restart, so a Walk that is not logged is neither applied
+                ServerLog.log("Cannot log Walks: " + e.getMessage());
+                IOException notLogged = new IOException("Walk not stored: " + e.getMessage(), e);
+                for (Update update : batch) {
+                    update.applied.completeExceptionally(notLogged);
+                }
+                batch.clear();
+                walks.clear();
+                return;
+            }
+        }
+        try {
+            graph.addWalks(walks);
+            Listener current = listener;
+            if (current != null) {
+                current.walksApplied(walks);
+            }
+            long appliedAt = System.nanoTime();
+            for (Update update : batch) {
+                applyWaits.recordValue(appliedAt - update.queued);
+                update.applied.complete(null);
+            }
+        } catch (Exception e) {
+            for (Update update : batch) {
+                update.applied.completeExceptionally(e);
+            }
+        }
+        batch.clear();
+        walks.clear();
+        if (log != null) {
+            try {
+                log.snapshotIfDue();
+            } catch (IOException e) {
+                ServerLog.log("Cannot write the graph snapshot: " + e.getMessage());
+            }
+        }
+    }
+}
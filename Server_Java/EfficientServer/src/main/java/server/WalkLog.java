@@ -0,0 +1,245 @@
+package server;
+import server.proto.*;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Write-ahead log of the applied Walks and periodic snapshots of the graph, for a warm restart
+ * The Walks are appended to numbered log segments (walks-N.log) as length prefixed protobuf messages before they
+ * are applied. Every SNAPSHOT_INTERVAL Walks the writer switches to a new segment and writes the whole graph to
+ * graph.snapshot together with the number of that segment, then deletes the older segments, so a restart maps the
+ * snapshot and replays only the segments written after it. A reset deletes the snapshot and every segment.
+ * All the methods are called by the single writer, the startup recovery before it starts
+ */
+final class WalkLog {
+    private static final long SNAPSHOT_INTERVAL = Long.getLong("server.snapshotInterval", 100000); //Walks between two snapshots
+    private static final boolean SYNC = Boolean.getBoolean("server.walkLog.sync"); //Force every batch to the disk
+    private static final int SNAPSHOT_MAGIC = 0x47534E50;
+    private static final int SNAPSHOT_FORMAT = 1;
+    private static final String SNAPSHOT_FILE = "graph.snapshot";
+    private static final int REPLAY_BATCH_SIZE = 1024;
+
+    private final Path directory;
+    private final Graph graph;
+    private long segment = 0; //Number of the segment the Walks are appended to
+    private FileChannel log;
+    private long walksSinceSnapshot = 0;
+
+    /**
+     * @param directory - the directory of the log segments and the snapshot, created if missing
+     * @param graph - the graph the Walks are applied to
+     */
+    WalkLog(Path directory, Graph graph) {
+        this.directory = directory;
+        this.graph = graph;
+    }
+
+    /**
+     * Load the snapshot and replay the logged Walks into the graph, then open a new segment for the next Walks
+     * A Walk torn or corrupted by a crash at the end of a segment is dropped, and the segment is truncated before it
+     */
+    void recover() throws IOException {
+        Files.createDirectories(directory);
+        long firstSegment = 0;
+        Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshotPath)) {
+            try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_FORMAT) {
+                    throw new IOException("Unknown snapshot format in " + snapshotPath);
+                }
+                firstSegment = buffer.getLong();
+                graph.loadSnapshot(buffer);
+            }
+        }
+
+        TreeMap<Long, Path> segments = listSegments();
+        long replayed = 0;
+        for (var entry : segments.entrySet()) {
+            if (entry.getKey() < firstSegment) {
+                Files.delete(entry.getValue()); //Already contained in the snapshot
+            } else {
+                replayed += replay(entry.getValue());
+            }
+            segment = Math.max(segment, entry.getKey() + 1);
+        }
+        segment = Math.max(segment, firstSegment);
+        walksSinceSnapshot = replayed;
+        log = openSegment(segment);
+        if (!segments.isEmpty() || Files.exists(snapshotPath)) {
+            ServerLog.log("Recovered " + graph.getNodeCount() + " nodes and " + graph.getEdgeCount() + " edges, "
+                    + replayed + " Walks replayed from the log");
+        }
+    }
+
+    /**
+     * Append Walks to the log, before they are applied
+     * A failed append is cut off the segment again, so the Walks of the batch are not replayed after a restart
+     * @param walks - the Walks of the batch
+     */
+    void append(List<Walk> walks) throws IOException {
+        int size = 0;
+        for (Walk walk : walks) {
+            size += 4 + walk.getSerializedSize();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        for (Walk walk : walks) {
+            out.writeFixed32NoTag(Integer.reverseBytes(walk.getSerializedSize())); //Big-endian like the frames
+            walk.writeTo(out);
+        }
+        out.flush();
+        buffer.flip();
+        long start = log.size();
+        try {
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            if (SYNC) {
+                log.force(false);
+            }
+        } catch (IOException e) {
+            try {
+                log.truncate(start);
+            } catch (IOException truncateError) {
+                e.addSuppressed(truncateError); //A partial record is dropped as torn by the recovery
+            }
+            throw e;
+        }
+        walksSinceSnapshot += walks.size();
+    }
+
+    /**
+     * Write a snapshot if enough Walks were logged since the previous one, called after a batch is applied
+     */
+    void snapshotIfDue() throws IOException {
+        if (walksSinceSnapshot < SNAPSHOT_INTERVAL) {
+            return;
+        }
+        //The next Walks go to a new segment, the snapshot contains every Walk of the older ones
+        log.close();
+        segment++;
+        log = openSegment(segment);
+        walksSinceSnapshot = 0; //A failed snapshot is retried after the next interval, the segments stay until then
+
+        Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_FORMAT);
+            out.writeLong(segment);
+            graph.writeSnapshot(out);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        for (var entry : listSegments().entrySet()) {
+            if (entry.getKey() < segment) {
+                Files.delete(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Delete the snapshot and every logged Walk, called when the graph is reset
+     */
+    void reset() throws IOException {
+        log.close();
+        Files.deleteIfExists(directory.resolve(SNAPSHOT_FILE));
+        for (Path path : listSegments().values()) {
+            Files.delete(path);
+        }
+        segment++;
+        log = openSegment(segment);
+        walksSinceSnapshot = 0;
+    }
+
+    /**
+     * Helper function to apply the Walks of a segment in batches
+     * The replay stops at the first record that is torn or cannot be parsed, and the segment is truncated there
+     * @return the number of replayed Walks
+     */
+    private long replay(Path path) throws IOException {
+        long replayed = 0;
+        long validEnd;
+        long size;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            List<Walk> batch = new ArrayList<>(REPLAY_BATCH_SIZE);
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt(buffer.position());
+                if (length < 0 || length > buffer.remaining() - 4) {
+                    ServerLog.log("Dropped a torn Walk at the end of " + path);
+                    break;
+                }
+                ByteBuffer message = buffer.slice(buffer.position() + 4, length);
+                Walk walk;
+                try {
+                    walk = Walk.parseFrom(message);
+                } catch (InvalidProtocolBufferException e) {
+                    ServerLog.log("Dropped a corrupt Walk at the end of " + path + ": " + e.getMessage());
+                    break;
+                }
+                if (walk.getLengthsCount() < walk.getLocationsCount() - 1) {
+                    ServerLog.log("Dropped a corrupt Walk at the end of " + path + ": fewer lengths than edges");
+                    break;
+                }
+                batch.add(walk);
+                buffer.position(buffer.position() + 4 + length);
+                if (batch.size() == REPLAY_BATCH_SIZE) {
+                    graph.addWalks(batch);
+                    replayed += batch.size();
+                    batch.clear();
+                }
+            }
+            graph.addWalks(batch);
+            replayed += batch.size();
+            validEnd = buffer.position();
+        }
+        if (validEnd < size) {
+            //Cut the dropped bytes off, the segment ends with its last good Walk
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(validEnd);
+            }
+        }
+        return replayed;
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(directory.resolve("walks-" + number + ".log"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * @return the log segments by their number
+     */
+    private TreeMap<Long, Path> listSegments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.startsWith("walks-") && name.endsWith(".log")) {
+                    segments.put(Long.parseLong(name.substring("walks-".length(), name.length() - ".log".length())), path);
+                }
+            });
+        }
+        return segments;
+    }
+}
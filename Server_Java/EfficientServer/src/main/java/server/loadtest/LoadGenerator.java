@@ -0,0 +1,270 @@
+package server.loadtest;
+import server.proto.*;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Load generator measuring the throughput and the latency percentiles of a running server
+ * Opens the given number of connections, each sends one request at a time and waits for its response.
+ * In the replay mode every connection sends the requests of one test file in order, over and over.
+ * In the mix mode the requests are drawn at random with the given weights from the Walks and the query locations
+ * of all the test files, after the Walks were sent once so the queries run on a complete graph.
+ * With a rate limit the latency is measured from the time the request was due, so a stalled server is not hidden.
+ * Configured with system properties:
+ * loadtest.host, loadtest.port, loadtest.connections, loadtest.seconds, loadtest.files (directory of the .pbf files),
+ * loadtest.mode (replay or mix), loadtest.walkWeight, loadtest.oneToOneWeight, loadtest.oneToAllWeight,
+ * loadtest.rate (requests per second of one connection, 0 for as fast as possible), loadtest.resets (replay the resets)
+ */
+public class LoadGenerator {
+    private static final String HOST = System.getProperty("loadtest.host", "localhost");
+    private static final int PORT = Integer.getInteger("loadtest.port", 12345);
+    private static final int CONNECTIONS = Integer.getInteger("loadtest.connections", 100);
+    private static final int SECONDS = Integer.getInteger("loadtest.seconds", 30);
+    private static final String FILES = System.getProperty("loadtest.files", "../../ServerTesterClient/TestFiles");
+    private static final String MODE = System.getProperty("loadtest.mode", "replay");
+    private static final int WALK_WEIGHT = Integer.getInteger("loadtest.walkWeight", 80);
+    private static final int ONE_TO_ONE_WEIGHT = Integer.getInteger("loadtest.oneToOneWeight", 15);
+    private static final int ONE_TO_ALL_WEIGHT = Integer.getInteger("loadtest.oneToAllWeight", 5);
+    private static final int RATE = Integer.getInteger("loadtest.rate", 0);
+    private static final boolean RESETS = Boolean.getBoolean("loadtest.resets"); //Resets wipe the graph of every connection
+
+    private static final long HIGHEST_LATENCY = TimeUnit.SECONDS.toNanos(60);
+    private static final String[] TYPES = {"Walk", "OneToOne", "OneToAll", "Reset"};
+
+    /**
+     * Measurements of one connection, merged after the run
+     */
+    private static final class Results {
+        final Histogram[] latencies = new Histogram[TYPES.length];
+        final long[] errors = new long[TYPES.length];
+
+        Results() {
+            for (int i = 0; i < TYPES.length; i++) {
+                latencies[i] = new Histogram(HIGHEST_LATENCY, 3);
+            }
+        }
+
+        void add(Results other) {
+            for (int i = 0; i < TYPES.length; i++) {
+                latencies[i].add(other.latencies[i]);
+                errors[i] += other.errors[i];
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<List<Request>> files = readTestFiles(Paths.get(FILES));
+        if (files.isEmpty()) {
+            System.out.println("No .pbf files in " + FILES);
+            return;
+        }
+        boolean mix = MODE.equals("mix");
+        if (mix) {
+            preload(files);
+        }
+
+        System.out.println("Running " + MODE + " with " + CONNECTIONS + " connections for " + SECONDS + " s");
+        ExecutorService connections = Executors.newFixedThreadPool(CONNECTIONS);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SECONDS);
+        List<Future<Results>> running = new ArrayList<>();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            RequestSource source = mix ? new MixSource(files, i) : new ReplaySource(files.get(i % files.size()));
+            running.add(connections.submit(() -> runConnection(source, deadline)));
+        }
+        Results total = new Results();
+        for (Future<Results> result : running) {
+            total.add(result.get());
+        }
+        connections.shutdown();
+        report(total, SECONDS);
+    }
+
+    /**
+     * Source of the requests of one connection
+     */
+    private interface RequestSource {
+        Request next();
+    }
+
+    /**
+     * The requests of one test file in order, restarting at the end
+     */
+    private static final class ReplaySource implements RequestSource {
+        private final List<Request> requests;
+        private int next = 0;
+
+        ReplaySource(List<Request> requests) {
+            this.requests = RESETS ? requests
+                    : requests.stream().filter(request -> !request.hasReset()).collect(Collectors.toList());
+        }
+
+        @Override
+        public Request next() {
+            Request request = requests.get(next);
+            next = (next + 1) % requests.size();
+            return request;
+        }
+    }
+
+    /**
+     * Random requests with the configured weights, made from the Walks and the locations of the test files
+     */
+    private static final class MixSource implements RequestSource {
+        private final List<Walk> walks;
+        private final List<Location> locations;
+        private final Random random;
+
+        MixSource(List<List<Request>> files, long seed) {
+            walks = walks(files);
+            locations = walks.stream().flatMap(walk -> walk.getLocationsList().stream()).collect(Collectors.toList());
+            random = new Random(seed);
+        }
+
+        @Override
+        public Request next() {
+            int draw = random.nextInt(WALK_WEIGHT + ONE_TO_ONE_WEIGHT + ONE_TO_ALL_WEIGHT);
+            if (draw < WALK_WEIGHT) {
+                return Request.newBuilder().setWalk(walks.get(random.nextInt(walks.size()))).build();
+            }
+            if (draw < WALK_WEIGHT + ONE_TO_ONE_WEIGHT) {
+                return Request.newBuilder().setOneToOne(OneToOne.newBuilder()
+                        .setOrigin(randomLocation()).setDestination(randomLocation())).build();
+            }
+            return Request.newBuilder().setOneToAll(OneToAll.newBuilder().setOrigin(randomLocation())).build();
+        }
+
+        private Location randomLocation() {
+            return locations.get(random.nextInt(locations.size()));
+        }
+    }
+
+    /**
+     * Send requests on one connection until the deadline
+     * @param source - the requests to send
+     * @param deadline - the System.nanoTime() at which the connection stops
+     * @return the latencies and the errors of the connection
+     */
+    private static Results runConnection(RequestSource source, long deadline) {
+        Results results = new Results();
+        long interval = RATE > 0 ? TimeUnit.SECONDS.toNanos(1) / RATE : 0;
+        try (Socket socket = new Socket(HOST, PORT)) {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            long due = System.nanoTime();
+            while (due < deadline) {
+                Request request = source.next();
+                long now = System.nanoTime();
+                if (interval > 0 && now < due) {
+                    TimeUnit.NANOSECONDS.sleep(due - now);
+                }
+                long start = interval > 0 ? due : System.nanoTime(); //Measure from the due time under a rate limit
+
+                byte[] message = request.toByteArray();
+                out.writeInt(message.length);
+                out.write(message);
+                out.flush();
+                byte[] responseBytes = new byte[in.readInt()];
+                in.readFully(responseBytes);
+                Response response = Response.parseFrom(responseBytes);
+
+                int type = typeOf(request);
+                results.latencies[type].recordValue(Math.min(System.nanoTime() - start, HIGHEST_LATENCY));
+                if (response.getStatus() != Response.Status.OK) {
+                    results.errors[type]++;
+                }
+                due = interval > 0 ? due + interval : System.nanoTime();
+            }
+        } catch (Exception e) {
+            System.out.println("Connection error: " + e.getMessage());
+        }
+        return results;
+    }
+
+    /**
+     * Helper function to send every Walk of the test files once before the mix starts
+     */
+    private static void preload(List<List<Request>> files) throws IOException {
+        try (Socket socket = new Socket(HOST, PORT)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            for (Walk walk : walks(files)) {
+                byte[] message = Request.newBuilder().setWalk(walk).build().toByteArray();
+                out.writeInt(message.length);
+                out.write(message);
+                out.flush();
+                in.readFully(new byte[in.readInt()]);
+            }
+        }
+    }
+
+    private static List<Walk> walks(List<List<Request>> files) {
+        return files.stream().flatMap(List::stream).filter(Request::hasWalk).map(Request::getWalk)
+                .collect(Collectors.toList());
+    }
+
+    private static int typeOf(Request request) {
+        if (request.hasWalk()) {
+            return 0;
+        }
+        if (request.hasOneToOne()) {
+            return 1;
+        }
+        return request.hasOneToAll() ? 2 : 3;
+    }
+
+    /**
+     * Helper function to read the length prefixed requests of every .pbf file of a directory
+     */
+    private static List<List<Request>> readTestFiles(Path directory) throws IOException {
+        List<List<Request>> files = new ArrayList<>();
+        List<Path> paths;
+        try (Stream<Path> listing = Files.list(directory)) {
+            paths = listing.filter(path -> path.toString().endsWith(".pbf")).sorted().collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            List<Request> requests = new ArrayList<>();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                while (in.available() > 0) {
+                    byte[] message = new byte[in.readInt()];
+                    in.readFully(message);
+                    requests.add(Request.parseFrom(message));
+                }
+            }
+            files.add(requests);
+        }
+        return files;
+    }
+
+    /**
+     * Helper function to print the throughput and the latency percentiles of every request type
+     */
+    private static void report(Results results, int seconds) {
+        long totalCount = 0;
+        System.out.printf("%-9s %10s %10s %8s %10s %10s %10s %10s%n",
+                "type", "requests", "req/s", "errors", "p50 [us]", "p99 [us]", "p999 [us]", "max [us]");
+        for (int i = 0; i < TYPES.length; i++) {
+            Histogram latencies = results.latencies[i];
+            long count = latencies.getTotalCount();
+            if (count == 0) {
+                continue;
+            }
+            totalCount += count;
+            System.out.printf("%-9s %10d %10.1f %8d %10.1f %10.1f %10.1f %10.1f%n", TYPES[i], count,
+                    (double) count / seconds, results.errors[i],
+                    latencies.getValueAtPercentile(50) / 1000.0, latencies.getValueAtPercentile(99) / 1000.0,
+                    latencies.getValueAtPercentile(99.9) / 1000.0, latencies.getMaxValue() / 1000.0);
+        }
+        System.out.printf("total     %10d %10.1f%n", totalCount, (double) totalCount / seconds);
+    }
+}
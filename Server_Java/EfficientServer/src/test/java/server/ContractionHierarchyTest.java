@@ -0,0 +1,98 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The upward searches of the contraction hierarchy must give the lengths of a plain Dijkstra
+ */
+class ContractionHierarchyTest {
+
+    @Test
+    void gridMatchesDijkstra() {
+        Random random = new Random(3);
+        ReferenceGraph graph = grid(random, 15, 1000);
+        assertMatches(graph, ContractionHierarchy.build(graph.toSnapshot()));
+    }
+
+    @Test
+    void sparseRandomGraphMatchesDijkstra() {
+        Random random = new Random(4);
+        int built = 0;
+        for (int round = 0; round < 5; round++) {
+            ReferenceGraph graph = ReferenceGraph.random(random, 120, 240, 1000);
+            ContractionHierarchy hierarchy = ContractionHierarchy.build(graph.toSnapshot());
+            if (hierarchy != null) { //A graph needing too many shortcuts is left to Dijkstra
+                assertMatches(graph, hierarchy);
+                built++;
+            }
+        }
+        assertTrue(built > 0);
+    }
+
+    @Test
+    void shortcutLongerThanAnIntIsNotBuilt() {
+        //A line with long edges, contracting its inner nodes needs shortcuts above Integer.MAX_VALUE
+        int nodeCount = 8;
+        int[] sources = new int[2 * (nodeCount - 1)];
+        int[] destinations = new int[sources.length];
+        int[] weights = new int[sources.length];
+        for (int node = 0; node < nodeCount - 1; node++) {
+            sources[2 * node] = node;
+            destinations[2 * node] = node + 1;
+            sources[2 * node + 1] = node + 1;
+            destinations[2 * node + 1] = node;
+        }
+        Arrays.fill(weights, 1_500_000_000);
+        ReferenceGraph graph = new ReferenceGraph(nodeCount, sources, destinations, weights);
+        assertNull(ContractionHierarchy.build(graph.toSnapshot()));
+
+        Arrays.fill(weights, 100_000_000); //Every shortcut fits
+        assertMatches(graph, ContractionHierarchy.build(graph.toSnapshot()));
+    }
+
+    private static void assertMatches(ReferenceGraph graph, ContractionHierarchy hierarchy) {
+        assertNotNull(hierarchy);
+        for (int start = 0; start < graph.nodeCount; start++) {
+            long[] expected = graph.distances(start);
+            for (int end = 0; end < graph.nodeCount; end++) {
+                assertEquals(expected[end], hierarchy.shortestPath(start, end), start + " -> " + end);
+            }
+        }
+    }
+
+    /**
+     * @return a side x side grid with edges both ways between the neighbors, like the walked streets
+     */
+    private static ReferenceGraph grid(Random random, int side, int maxWeight) {
+        int edgeCount = 4 * side * (side - 1);
+        int[] sources = new int[edgeCount];
+        int[] destinations = new int[edgeCount];
+        int[] weights = new int[edgeCount];
+        int edge = 0;
+        for (int y = 0; y < side; y++) {
+            for (int x = 0; x < side; x++) {
+                int node = y * side + x;
+                for (int neighbor : new int[]{x + 1 < side ? node + 1 : -1, y + 1 < side ? node + side : -1}) {
+                    if (neighbor == -1) {
+                        continue;
+                    }
+                    sources[edge] = node;
+                    destinations[edge] = neighbor;
+                    weights[edge++] = 1 + random.nextInt(maxWeight);
+                    sources[edge] = neighbor;
+                    destinations[edge] = node;
+                    weights[edge++] = 1 + random.nextInt(maxWeight);
+                }
+            }
+        }
+        return new ReferenceGraph(side * side, sources, destinations, weights);
+    }
+}
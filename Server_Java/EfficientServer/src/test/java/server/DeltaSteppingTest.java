@@ -0,0 +1,57 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The parallel delta-stepping totals must be exactly the ones of a sequential Dijkstra
+ */
+class DeltaSteppingTest {
+
+    @Test
+    void totalLengthMatchesDijkstra() {
+        Random random = new Random(5);
+        ReferenceGraph graph = ReferenceGraph.random(random, 5000, 25000, 1000);
+        GraphSnapshot snapshot = graph.toSnapshot();
+        //A huge delta puts everything in one bucket, so the frontiers are large enough to be split on the pool
+        for (long delta : new long[]{0, 1, 37, 1000, Long.MAX_VALUE / 4}) {
+            for (int start = 0; start < graph.nodeCount; start += 999) {
+                assertEquals(graph.totalLength(start), DeltaStepping.totalLength(snapshot, start, delta),
+                        "start " + start + ", delta " + delta);
+            }
+        }
+    }
+
+    @Test
+    void disconnectedGraphCountsOnlyTheReachableNodes() {
+        //Two random components with no edge between them, and isolated nodes at the end
+        Random random = new Random(6);
+        ReferenceGraph first = ReferenceGraph.random(random, 1000, 4000, 100);
+        ReferenceGraph second = ReferenceGraph.random(random, 1000, 4000, 100);
+        int edgeCount = first.edgeCount + second.edgeCount;
+        int[] sources = Arrays.copyOf(first.sources, edgeCount);
+        int[] destinations = Arrays.copyOf(first.destinations, edgeCount);
+        int[] weights = Arrays.copyOf(first.weights, edgeCount);
+        for (int edge = 0; edge < second.edgeCount; edge++) {
+            sources[first.edgeCount + edge] = second.sources[edge] + first.nodeCount;
+            destinations[first.edgeCount + edge] = second.destinations[edge] + first.nodeCount;
+            weights[first.edgeCount + edge] = second.weights[edge];
+        }
+        ReferenceGraph graph = new ReferenceGraph(first.nodeCount + second.nodeCount + 10, sources, destinations, weights);
+        GraphSnapshot snapshot = graph.toSnapshot();
+        for (int start : new int[]{0, 500, first.nodeCount, first.nodeCount + 700, graph.nodeCount - 1}) {
+            assertEquals(graph.totalLength(start), DeltaStepping.totalLength(snapshot, start, 0), "start " + start);
+        }
+    }
+
+    @Test
+    void graphWithoutEdges() {
+        GraphSnapshot snapshot = new ReferenceGraph(3, new int[0], new int[0], new int[0]).toSnapshot();
+        assertEquals(0, DeltaStepping.totalLength(snapshot, 1, 0));
+        assertEquals(0, DeltaStepping.totalLength(snapshot, 3, 0)); //Node added after the snapshot was built
+    }
+}
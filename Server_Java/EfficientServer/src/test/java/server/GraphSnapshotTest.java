@@ -0,0 +1,48 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The searches on the CSR snapshot must give the lengths of a textbook Dijkstra on the same edges
+ */
+class GraphSnapshotTest {
+
+    @Test
+    void totalLengthMatchesDijkstra() {
+        Random random = new Random(1);
+        for (int round = 0; round < 20; round++) {
+            ReferenceGraph graph = ReferenceGraph.random(random, 200, 800, 1000);
+            GraphSnapshot snapshot = graph.toSnapshot();
+            for (int start = 0; start < graph.nodeCount; start += 17) {
+                assertEquals(graph.totalLength(start), snapshot.totalLength(start), "start " + start);
+            }
+        }
+    }
+
+    @Test
+    void bidirectionalShortestPathMatchesDijkstra() {
+        Random random = new Random(2);
+        for (int round = 0; round < 10; round++) {
+            ReferenceGraph graph = ReferenceGraph.random(random, 150, 300 + 100 * round, 1000); //The sparse ones leave nodes unreachable
+            GraphSnapshot snapshot = graph.toSnapshot();
+            for (int start = 0; start < graph.nodeCount; start += 7) {
+                long[] expected = graph.distances(start);
+                for (int end = 0; end < graph.nodeCount; end++) {
+                    assertEquals(expected[end], snapshot.shortestPath(start, end), start + " -> " + end);
+                }
+            }
+        }
+    }
+
+    @Test
+    void nodeAddedAfterTheSnapshotIsUnreachable() {
+        GraphSnapshot snapshot = new ReferenceGraph(2, new int[]{0}, new int[]{1}, new int[]{5}).toSnapshot();
+        assertEquals(0, snapshot.totalLength(2));
+        assertEquals(5, snapshot.totalLength(0));
+        assertEquals(-1, snapshot.shortestPath(0, 2));
+    }
+}
@@ -0,0 +1,116 @@
+package server;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import server.proto.Location;
+import server.proto.Walk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The repaired shortest path trees of the hot origins must match a plain search on the same snapshot while Walks
+ * keep changing the edges
+ */
+class HotOriginsTest {
+    private static final int NODES = 2000;
+    private static final int ORIGINS = 4;
+    private static final long DURATION_MILLIS = 3000;
+    private static final long PAUSE_NANOS = 100_000;
+
+    private static Graph graph;
+
+    @BeforeAll
+    static void createGraph() {
+        //Answer every query from the trees, not from the cache of the totals
+        System.setProperty("server.oneToAllCacheSize", "0");
+        System.setProperty("server.hotOriginQueries", "1");
+        graph = new Graph();
+        List<Walk> ring = new ArrayList<>();
+        for (int node = 0; node < NODES; node++) {
+            ring.add(walk(new int[]{node, (node + 1) % NODES}, new int[]{50}));
+        }
+        graph.addWalks(ring);
+    }
+
+    @AfterAll
+    static void closeGraph() {
+        graph.close();
+        System.clearProperty("server.oneToAllCacheSize");
+        System.clearProperty("server.hotOriginQueries");
+    }
+
+    @Test
+    void repairedTotalsMatchDijkstraUnderConcurrentWalks() throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong checks = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+
+        Thread writer = new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (running.get()) {
+                List<Walk> walks = new ArrayList<>();
+                for (int i = random.nextInt(1, 6); i > 0; i--) {
+                    int[] nodes = new int[random.nextInt(2, 6)];
+                    int[] lengths = new int[nodes.length - 1];
+                    for (int j = 0; j < nodes.length; j++) {
+                        nodes[j] = random.nextInt(NODES);
+                    }
+                    for (int j = 0; j < lengths.length; j++) {
+                        lengths[j] = random.nextInt(1, 200); //Lengths both above and below the averages
+                    }
+                    walks.add(walk(nodes, lengths));
+                }
+                graph.addWalks(walks);
+                LockSupport.parkNanos(PAUSE_NANOS); //Keeps the graph small enough for many searches
+            }
+        }, "test-writer");
+
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 2; r++) {
+            readers.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    GraphSnapshot snapshot = graph.getSnapshot();
+                    int origin = random.nextInt(ORIGINS);
+                    if (graph.totalLength(snapshot, origin) != snapshot.totalLength(origin)) {
+                        failures.incrementAndGet();
+                    }
+                    checks.incrementAndGet();
+                }
+            }, "test-reader-" + r));
+        }
+
+        writer.start();
+        readers.forEach(Thread::start);
+        TimeUnit.MILLISECONDS.sleep(DURATION_MILLIS);
+        running.set(false);
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertTrue(checks.get() > 0);
+        assertEquals(0, failures.get(), "Wrong totals in " + checks.get() + " checks");
+    }
+
+    private static Walk walk(int[] nodes, int[] lengths) {
+        Walk.Builder walk = Walk.newBuilder();
+        for (int node : nodes) {
+            walk.addLocations(Location.newBuilder().setX(node * 10_000).setY(0));
+        }
+        for (int length : lengths) {
+            walk.addLengths(length);
+        }
+        return walk.build();
+    }
+}
@@ -0,0 +1,66 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import server.proto.Location;
+import server.proto.Walk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A namespace must be created once however many requests ask for it at the same time
+ */
+class NamespacesTest {
+    private final Graph graph = new Graph();
+    private final WalkIngestor walkIngestor = new WalkIngestor(graph);
+    private final ExecutorService executor = Executors.newFixedThreadPool(16);
+
+    @AfterEach
+    void close() {
+        executor.shutdownNow();
+        walkIngestor.close();
+        graph.close();
+    }
+
+    @Test
+    void concurrentRequestsShareOneNamespace() throws Exception {
+        Namespaces namespaces = new Namespaces(graph, walkIngestor);
+        List<Callable<Namespaces.Namespace>> requests = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            requests.add(() -> namespaces.acquire("shared"));
+        }
+        List<Future<Namespaces.Namespace>> acquired = executor.invokeAll(requests);
+
+        Namespaces.Namespace namespace = acquired.get(0).get();
+        for (Future<Namespaces.Namespace> other : acquired) {
+            assertSame(namespace, other.get());
+        }
+        assertEquals(1, namespaces.size());
+        long emptyBytes = namespace.graph.getMemoryBytes();
+        assertTrue(emptyBytes > 0);
+
+        //The single writer of the published namespace was started
+        for (int i = 0; i < 5000; i++) {
+            namespace.walkIngestor.submitWalk(Walk.newBuilder().addLocations(location(i)).addLocations(location(i + 1))
+                    .addLengths(10).build());
+        }
+        namespace.walkIngestor.submitTask(() -> { }).join();
+        assertEquals(5001, namespace.graph.getNodeCount());
+        assertEquals(0, graph.getNodeCount());
+        assertTrue(namespace.graph.getMemoryBytes() > emptyBytes);
+        acquired.forEach(future -> namespace.release());
+    }
+
+    private static Location location(int i) {
+        return Location.newBuilder().setX(i * 10_000).setY(0).build();
+    }
+}
@@ -0,0 +1,102 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Edge list with a textbook Dijkstra search, the reference the optimized searches are compared with
+ */
+final class ReferenceGraph {
+    final int nodeCount;
+    final int[] sources;
+    final int[] destinations;
+    final int[] weights;
+    final int edgeCount;
+
+    ReferenceGraph(int nodeCount, int[] sources, int[] destinations, int[] weights) {
+        this.nodeCount = nodeCount;
+        this.sources = sources;
+        this.destinations = destinations;
+        this.weights = weights;
+        this.edgeCount = sources.length;
+    }
+
+    /**
+     * @param random - the source of the edges
+     * @param nodeCount - the number of nodes
+     * @param edgeCount - the number of distinct directed edges, without loops
+     * @param maxWeight - the maximum edge length, the lengths start at 1
+     * @return a random directed graph
+     */
+    static ReferenceGraph random(Random random, int nodeCount, int edgeCount, int maxWeight) {
+        Set<Long> keys = new HashSet<>();
+        int[] sources = new int[edgeCount];
+        int[] destinations = new int[edgeCount];
+        int[] weights = new int[edgeCount];
+        int edge = 0;
+        while (edge < edgeCount) {
+            int source = random.nextInt(nodeCount);
+            int destination = random.nextInt(nodeCount);
+            if (source != destination && keys.add(EdgeStore.edgeKey(source, destination))) {
+                sources[edge] = source;
+                destinations[edge] = destination;
+                weights[edge] = 1 + random.nextInt(maxWeight);
+                edge++;
+            }
+        }
+        return new ReferenceGraph(nodeCount, sources, destinations, weights);
+    }
+
+    GraphSnapshot toSnapshot() {
+        return GraphSnapshot.fromEdges(nodeCount, sources, destinations, weights, edgeCount, 1, 0, 0);
+    }
+
+    /**
+     * @param start - the id of the start node
+     * @return the shortest path length to every node, -1 for the unreachable ones
+     */
+    long[] distances(int start) {
+        List<List<int[]>> outgoing = new ArrayList<>();
+        for (int node = 0; node < nodeCount; node++) {
+            outgoing.add(new ArrayList<>());
+        }
+        for (int edge = 0; edge < edgeCount; edge++) {
+            outgoing.get(sources[edge]).add(new int[]{destinations[edge], weights[edge]});
+        }
+        long[] distances = new long[nodeCount];
+        Arrays.fill(distances, -1);
+        PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        queue.add(new long[]{0, start});
+        while (!queue.isEmpty()) {
+            long[] entry = queue.poll();
+            int node = (int) entry[1];
+            if (distances[node] != -1) {
+                continue;
+            }
+            distances[node] = entry[0];
+            for (int[] edge : outgoing.get(node)) {
+                if (distances[edge[0]] == -1) {
+                    queue.add(new long[]{entry[0] + edge[1], edge[0]});
+                }
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * @param start - the id of the start node
+     * @return the sum of the shortest path lengths to the reachable nodes
+     */
+    long totalLength(int start) {
+        long total = 0;
+        for (long distance : distances(start)) {
+            total += Math.max(distance, 0);
+        }
+        return total;
+    }
+}
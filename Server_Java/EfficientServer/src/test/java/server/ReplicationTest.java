@@ -0,0 +1,159 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import server.proto.Location;
+import server.proto.Walk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A replica must catch up with the graph of the primary, follow its changes and acknowledge them
+ */
+class ReplicationTest {
+    private static final int GRID = 100; //Walks run between GRID x GRID locations, the graph spans several chunks
+
+    private final Graph primaryGraph = new Graph();
+    private final WalkIngestor primaryIngestor = new WalkIngestor(primaryGraph);
+    private final Graph replicaGraph = new Graph();
+    private final WalkIngestor replicaIngestor = new WalkIngestor(replicaGraph);
+    private ReplicationPrimary primary;
+    private ReplicationReplica replica;
+
+    @AfterEach
+    void close() throws IOException {
+        if (replica != null) {
+            replica.close();
+        }
+        if (primary != null) {
+            primary.close();
+        }
+        primaryIngestor.close();
+        replicaIngestor.close();
+        primaryGraph.close();
+        replicaGraph.close();
+    }
+
+    @Test
+    void replicaCatchesUpAndFollowsTheChanges() throws Exception {
+        startPrimary();
+        Random random = new Random(21);
+        write(random, 5000).join();
+        assertTrue(primaryGraph.getNodeCount() > 8000);
+
+        startReplica();
+        awaitInSync();
+        assertSameAnswers();
+
+        write(random, 500).join();
+        awaitInSync();
+        assertSameAnswers();
+
+        primaryIngestor.submitReset().join();
+        write(random, 50).join();
+        awaitInSync();
+        assertSameAnswers();
+    }
+
+    @Test
+    void lagIsReportedUntilTheChangesAreAcknowledged() throws Exception {
+        startPrimary();
+        Random random = new Random(22);
+        write(random, 100).join();
+        startReplica();
+        awaitInSync();
+
+        //Hold the single writer of the replica, the next changes are received but not applied
+        CountDownLatch release = new CountDownLatch(1);
+        replicaIngestor.submitTask(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (int i = 0; i < 3; i++) {
+            write(random, 1).join(); //One frame each
+        }
+        await(() -> replica.getReplicationLag() == 3, "replica lag");
+        assertEquals(3, primary.getReplicationLag());
+        assertEquals(1, primary.getReplicaCount());
+
+        release.countDown();
+        awaitInSync();
+        assertSameAnswers();
+    }
+
+    private void startPrimary() throws IOException {
+        primary = new ReplicationPrimary(0, primaryGraph, primaryIngestor);
+        primary.start();
+    }
+
+    private void startReplica() {
+        replica = new ReplicationReplica("localhost:" + primary.getPort(), replicaGraph, replicaIngestor);
+        replica.start();
+    }
+
+    /**
+     * Wait until the replica applied and acknowledged every change of the primary
+     */
+    private void awaitInSync() throws InterruptedException {
+        await(() -> primary.getReplicaCount() == 1 && primary.getReplicationLag() == 0 && replica.getReplicationLag() == 0
+                && replicaGraph.getNodeCount() == primaryGraph.getNodeCount()
+                && replicaGraph.getEdgeCount() == primaryGraph.getEdgeCount(), "replica in sync");
+    }
+
+    private static void await(BooleanSupplier condition, String description) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for the " + description);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    /**
+     * Submit random Walks to the primary
+     * @return completed once the last one is applied
+     */
+    private CompletableFuture<Void> write(Random random, int count) throws InterruptedException {
+        CompletableFuture<Void> applied = CompletableFuture.completedFuture(null);
+        for (int i = 0; i < count; i++) {
+            Walk.Builder walk = Walk.newBuilder();
+            for (int j = 0; j < 4; j++) {
+                walk.addLocations(location(random.nextInt(GRID), random.nextInt(GRID)));
+            }
+            for (int j = 0; j < 3; j++) {
+                walk.addLengths(1 + random.nextInt(1000));
+            }
+            applied = primaryIngestor.submitWalk(walk.build());
+        }
+        return applied;
+    }
+
+    private void assertSameAnswers() {
+        List<Location> origins = new ArrayList<>();
+        for (int i = 0; i < GRID; i += 9) {
+            origins.add(location(i, (i * 7) % GRID));
+        }
+        for (Location origin : origins) {
+            assertEquals(primaryGraph.computeTotalLength(origin), replicaGraph.computeTotalLength(origin), "OneToAll");
+            Location destination = location(GRID - 1 - origin.getY() / 10_000, origin.getX() / 10_000);
+            assertEquals(primaryGraph.computeShortestPath(origin, destination),
+                    replicaGraph.computeShortestPath(origin, destination), "OneToOne");
+        }
+    }
+
+    private static Location location(int x, int y) {
+        return Location.newBuilder().setX(x * 10_000).setY(y * 10_000).build();
+    }
+}
@@ -0,0 +1,60 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import server.proto.Location;
+import server.proto.OneToOne;
+import server.proto.Request;
+import server.proto.Response;
+import server.proto.Walk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The pipelined requests of one connection must be answered as if they were processed one by one
+ */
+class RequestPipelineTest {
+    private static final int PAIRS = 5000; //More than the queries admitted to the cheap lane (-Dserver.admission.maxQueued)
+
+    private final Graph graph = new Graph();
+    private final WalkIngestor walkIngestor = new WalkIngestor(graph);
+    private final Namespaces namespaces = new Namespaces(graph, walkIngestor);
+    private final AdmissionControl admission = new AdmissionControl();
+    private final ServerMetrics metrics = new ServerMetrics(graph, walkIngestor, admission, namespaces);
+
+    @AfterEach
+    void close() {
+        walkIngestor.close();
+        graph.close();
+    }
+
+    @Test
+    void pipeliningClientIsNeverRejected() {
+        RequestPipeline pipeline = new RequestPipeline(namespaces, admission, metrics);
+        List<CompletableFuture<Response>> responses = new ArrayList<>(2 * PAIRS);
+        //Every query waits for the Walk before it, which extends the line by one more edge
+        for (int i = 0; i < PAIRS; i++) {
+            responses.add(pipeline.process(Request.newBuilder().setWalk(Walk.newBuilder()
+                    .addLocations(location(i)).addLocations(location(i + 1)).addLengths(10)).build()));
+            responses.add(pipeline.process(Request.newBuilder().setOneToOne(OneToOne.newBuilder()
+                    .setOrigin(location(0)).setDestination(location(i + 1))).build()));
+        }
+
+        for (int i = 0; i < PAIRS; i++) {
+            Response walk = responses.get(2 * i).join();
+            assertEquals(Response.Status.OK, walk.getStatus(), walk.getErrMsg());
+            Response query = responses.get(2 * i + 1).join();
+            assertEquals(Response.Status.OK, query.getStatus(), query.getErrMsg());
+            assertEquals(10L * (i + 1), query.getShortestPathLength(), "OneToOne after Walk " + i);
+        }
+        assertEquals(0, admission.getRejected());
+    }
+
+    private static Location location(int i) {
+        return Location.newBuilder().setX(i * 10_000).setY(0).build();
+    }
+}
@@ -0,0 +1,94 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The grid lookups must snap like a linear scan over every node
+ */
+class SpatialIndexTest {
+    private static final int DISTANCE = 500;
+    private static final int RANGE = 5000; //Coordinates in [-RANGE, RANGE), dense enough for crowded cells
+
+    @Test
+    void findOrAddMatchesLinearSnapping() {
+        Random random = new Random(7);
+        SpatialIndex index = new SpatialIndex(DISTANCE);
+        List<int[]> points = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            int x = random.nextInt(2 * RANGE) - RANGE;
+            int y = random.nextInt(2 * RANGE) - RANGE;
+            long nearest = nearestDistance(points, x, y);
+            int node = index.findOrAdd(x, y);
+            if (nearest == -1) {
+                assertEquals(points.size(), node, "new node at " + x + "," + y);
+                points.add(new int[]{x, y});
+            } else {
+                //On a tie any of the nearest nodes is right
+                assertEquals(nearest, distance(points.get(node), x, y), "snapped " + x + "," + y);
+            }
+        }
+        assertEquals(points.size(), index.size());
+    }
+
+    @Test
+    void nearestMatchesLinearScan() {
+        Random random = new Random(8);
+        SpatialIndex index = new SpatialIndex(DISTANCE);
+        List<int[]> points = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            int x = random.nextInt(2 * RANGE) - RANGE;
+            int y = random.nextInt(2 * RANGE) - RANGE;
+            assertEquals(points.size(), index.append(x, y)); //Appended without snapping, the nodes may be close
+            points.add(new int[]{x, y});
+        }
+        for (int i = 0; i < 20000; i++) {
+            int x = random.nextInt(2 * RANGE + 2 * DISTANCE) - RANGE - DISTANCE;
+            int y = random.nextInt(2 * RANGE + 2 * DISTANCE) - RANGE - DISTANCE;
+            long nearest = nearestDistance(points, x, y);
+            int node = index.nearest(x, y);
+            if (nearest == -1) {
+                assertEquals(-1, node, "nothing near " + x + "," + y);
+            } else {
+                assertEquals(nearest, distance(points.get(node), x, y), "nearest to " + x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    void snappingDistanceIsExclusive() {
+        SpatialIndex index = new SpatialIndex(DISTANCE);
+        index.append(0, 0);
+        assertEquals(0, index.nearest(DISTANCE - 1, 0));
+        assertEquals(-1, index.nearest(DISTANCE, 0));
+        assertEquals(-1, index.nearest(-DISTANCE, 0));
+        index.clear();
+        assertEquals(-1, index.nearest(0, 0));
+        assertEquals(0, index.findOrAdd(7, 7));
+    }
+
+    /**
+     * @return the squared distance of the nearest point strictly within the snapping distance, -1 if there is none
+     */
+    private static long nearestDistance(List<int[]> points, int x, int y) {
+        long best = -1;
+        for (int[] point : points) {
+            long distance = distance(point, x, y);
+            if (distance < (long) DISTANCE * DISTANCE && (best == -1 || distance < best)) {
+                best = distance;
+            }
+        }
+        return best;
+    }
+
+    private static long distance(int[] point, int x, int y) {
+        long diffX = point[0] - x;
+        long diffY = point[1] - y;
+        return diffX * diffX + diffY * diffY;
+    }
+}
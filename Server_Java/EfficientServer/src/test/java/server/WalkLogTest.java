@@ -0,0 +1,171 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import server.proto.Location;
+import server.proto.Walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A graph recovered from the write-ahead log and the snapshot must answer like the graph the Walks were applied to
+ */
+class WalkLogTest {
+    private static final int GRID = 40; //Walks run between GRID x GRID locations
+
+    @TempDir
+    Path directory;
+
+    private final List<Graph> graphs = new ArrayList<>();
+
+    @AfterEach
+    void closeGraphs() {
+        graphs.forEach(Graph::close);
+    }
+
+    @Test
+    void replayedSegmentMatchesTheAppliedWalks() throws IOException {
+        Graph original = newGraph();
+        WalkLog log = new WalkLog(directory, original);
+        log.recover();
+        write(log, original, new Random(9), 50, 100);
+
+        assertSameAnswers(original, recover());
+    }
+
+    @Test
+    void snapshotAndLaterSegmentsAreReplayed() throws IOException {
+        Graph original = newGraph();
+        WalkLog log = new WalkLog(directory, original);
+        log.recover();
+        //Enough Walks for a snapshot (-Dserver.snapshotInterval, 100000 by default) and a segment after it
+        write(log, original, new Random(10), 110, 1000);
+        assertTrue(Files.exists(directory.resolve("graph.snapshot")));
+        assertEquals(1, segments().size()); //The segments contained in the snapshot are deleted
+
+        assertSameAnswers(original, recover());
+    }
+
+    @Test
+    void tornTailIsDroppedAndTruncated() throws IOException {
+        Graph original = newGraph();
+        WalkLog log = new WalkLog(directory, original);
+        log.recover();
+        write(log, original, new Random(11), 20, 100);
+        Path segment = segments().get(segments().size() - 1);
+        long goodSize = Files.size(segment);
+        //A crash in the middle of a record: its length is written, only part of the message
+        Files.write(segment, ByteBuffer.allocate(7).putInt(1000).array(), StandardOpenOption.APPEND);
+
+        assertSameAnswers(original, recover());
+        assertEquals(goodSize, Files.size(segment));
+    }
+
+    @Test
+    void corruptTailIsDroppedAndTruncated() throws IOException {
+        Graph original = newGraph();
+        WalkLog log = new WalkLog(directory, original);
+        log.recover();
+        write(log, original, new Random(12), 20, 100);
+        Path segment = segments().get(segments().size() - 1);
+        long goodSize = Files.size(segment);
+        //A complete length but garbage instead of the message
+        byte[] garbage = new byte[16];
+        Arrays.fill(garbage, (byte) 0xFF);
+        Files.write(segment, ByteBuffer.allocate(4 + garbage.length).putInt(garbage.length).put(garbage).array(),
+                StandardOpenOption.APPEND);
+
+        //Through the ingestor, whose constructor failed on a corrupt record
+        Graph recovered = newGraph();
+        WalkIngestor ingestor = new WalkIngestor(recovered, directory);
+        try {
+            assertSameAnswers(original, recovered);
+            assertEquals(goodSize, Files.size(segment));
+        } finally {
+            ingestor.close();
+        }
+    }
+
+    @Test
+    void resetDeletesTheLog() throws IOException {
+        Graph original = newGraph();
+        WalkLog log = new WalkLog(directory, original);
+        log.recover();
+        write(log, original, new Random(13), 20, 100);
+        log.reset();
+        original.reset();
+
+        assertFalse(Files.exists(directory.resolve("graph.snapshot")));
+        Graph recovered = recover();
+        assertEquals(0, recovered.getNodeCount());
+        assertEquals(0, recovered.getEdgeCount());
+    }
+
+    private Graph newGraph() {
+        Graph graph = new Graph();
+        graphs.add(graph);
+        return graph;
+    }
+
+    private Graph recover() throws IOException {
+        Graph recovered = newGraph();
+        new WalkLog(directory, recovered).recover();
+        return recovered;
+    }
+
+    /**
+     * Log and apply random Walks in batches like the single writer does
+     */
+    private static void write(WalkLog log, Graph graph, Random random, int batches, int batchSize) throws IOException {
+        for (int i = 0; i < batches; i++) {
+            List<Walk> walks = new ArrayList<>(batchSize);
+            for (int j = 0; j < batchSize; j++) {
+                Walk.Builder walk = Walk.newBuilder();
+                for (int k = 0; k < 3; k++) {
+                    walk.addLocations(location(random.nextInt(GRID), random.nextInt(GRID)));
+                }
+                walk.addLengths(1 + random.nextInt(1000)).addLengths(1 + random.nextInt(1000));
+                walks.add(walk.build());
+            }
+            log.append(walks);
+            graph.addWalks(walks);
+            log.snapshotIfDue();
+        }
+    }
+
+    private static void assertSameAnswers(Graph expected, Graph actual) {
+        assertEquals(expected.getNodeCount(), actual.getNodeCount());
+        assertEquals(expected.getEdgeCount(), actual.getEdgeCount());
+        for (int i = 0; i < GRID; i += 3) {
+            Location origin = location(i, (i * 7) % GRID);
+            Location destination = location((i * 11) % GRID, GRID - 1 - i);
+            assertEquals(expected.computeTotalLength(origin), actual.computeTotalLength(origin), "OneToAll " + i);
+            assertEquals(expected.computeShortestPath(origin, destination), actual.computeShortestPath(origin, destination),
+                    "OneToOne " + i);
+        }
+    }
+
+    private static Location location(int x, int y) {
+        return Location.newBuilder().setX(x * 10_000).setY(y * 10_000).build();
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("walks-")).sorted().toList();
+        }
+    }
+}